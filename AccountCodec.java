@@ -0,0 +1,351 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Compact, versioned binary form of whole accounts with their history, for
+// snapshots that move between versions (e.g. bank_data.dat converted from
+// Java serialization). Unlike the fixed-width store slots, every number is a
+// varint (signed ones zigzag-encoded) and history timestamps are deltas, so
+// typical accounts take tens of bytes.
+//
+// File: [magic][version][journal lsn][account count] then per account a
+// length-prefixed record, and a CRC32 of everything before it. A record is a
+// sequence of fields, each a key (tag << 3 | wire type) and a value that is
+// either a varint or a length-prefixed byte string. Readers skip fields with
+// tags they do not know and default fields that are missing, so fields can be
+// added without a new version; FORMAT_VERSION changes only for layouts older
+// readers could not skip, and they refuse such files.
+//
+// History field: [count] then per entry [time delta][type][amount][counterparty + 1],
+// NOTE entries carrying their text in place of the amount.
+public final class AccountCodec {
+    static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x42414E43; // "BANC"
+
+    private static final int VARINT = 0;
+    private static final int BYTES = 2;
+
+    private static final int NAME = 1;
+    private static final int NUMBER = 2;
+    private static final int TYPE = 3;
+    private static final int BALANCE = 4;
+    private static final int RATE = 5;
+    private static final int LOCKED = 6;
+    private static final int PIN = 7;
+    private static final int HISTORY = 8;
+
+    private static final int SAVINGS = 0;
+    private static final int CHECKING = 1;
+
+    private AccountCodec() {
+    }
+
+    // One account's record, with its whole history (read from the store if only held there)
+    static byte[] encode(BankAccount account) {
+        Encoder out = new Encoder(128);
+        encode(account, out, new Encoder(64));
+        return out.toByteArray();
+    }
+
+    private static void encode(BankAccount account, Encoder out, Encoder history) {
+        history.reset();
+        AccountLocks.lock(account);
+        try {
+            out.bytesField(NAME, account.getAccountHolderName().getBytes(StandardCharsets.UTF_8));
+            out.bytesField(NUMBER, account.getAccountNumber().getBytes(StandardCharsets.UTF_8));
+            out.varintField(TYPE, "Savings".equalsIgnoreCase(account.getAccountType()) ? SAVINGS : CHECKING);
+            out.varintField(BALANCE, zigzag(account.getBalance()));
+            out.varintField(RATE, zigzag(account.getInterestRate()));
+            out.varintField(LOCKED, account.isLocked() ? 1 : 0);
+            ByteBuffer pin = ByteBuffer.allocate(PinHash.ENCODED_SIZE);
+            account.getPinHash().write(pin);
+            out.bytesField(PIN, pin.array());
+            encodeHistory(account.viewHistory(), history);
+            out.bytesField(HISTORY, history.bytes, history.size);
+        } finally {
+            AccountLocks.unlock(account);
+        }
+    }
+
+    private static void encodeHistory(TransactionHistory history, Encoder out) {
+        out.varint(history.size());
+        long previous = 0;
+        for (int i = 0; i < history.size(); i++) {
+            long time = history.timeAt(i);
+            byte type = history.typeAt(i);
+            out.varint(zigzag(time - previous));
+            out.varint(type);
+            if (type == TransactionHistory.NOTE) {
+                byte[] text = history.noteAt(i).getBytes(StandardCharsets.UTF_8);
+                out.varint(text.length);
+                out.bytes(text, text.length);
+            } else {
+                out.varint(zigzag(history.amountAt(i)));
+            }
+            out.varint(history.counterpartyAt(i) + 1);
+            previous = time;
+        }
+    }
+
+    static BankAccount decode(byte[] record) throws IOException {
+        return decode(new Decoder(record, 0, record.length));
+    }
+
+    private static BankAccount decode(Decoder in) throws IOException {
+        String name = "";
+        String number = null;
+        String type = "Checking";
+        long balance = 0;
+        int rate = 0;
+        boolean locked = false;
+        PinHash pin = null;
+        Decoder history = null;
+        while (in.hasRemaining()) {
+            long key = in.varint();
+            int tag = (int) (key >>> 3);
+            int wireType = (int) (key & 7);
+            if (tag == NAME && wireType == BYTES) {
+                name = in.string();
+            } else if (tag == NUMBER && wireType == BYTES) {
+                number = in.string();
+            } else if (tag == TYPE && wireType == VARINT) {
+                type = in.varint() == SAVINGS ? "Savings" : "Checking";
+            } else if (tag == BALANCE && wireType == VARINT) {
+                balance = unzigzag(in.varint());
+            } else if (tag == RATE && wireType == VARINT) {
+                rate = (int) unzigzag(in.varint());
+            } else if (tag == LOCKED && wireType == VARINT) {
+                locked = in.varint() != 0;
+            } else if (tag == PIN && wireType == BYTES) {
+                int length = in.length();
+                if (length != PinHash.ENCODED_SIZE) {
+                    throw new IOException("Malformed PIN hash");
+                }
+                pin = PinHash.read(ByteBuffer.wrap(in.bytes, in.position, length));
+                in.position += length;
+            } else if (tag == HISTORY && wireType == BYTES) {
+                int length = in.length();
+                history = new Decoder(in.bytes, in.position, in.position + length);
+                in.position += length;
+            } else {
+                in.skip(wireType); // A field added by a later version
+            }
+        }
+        if (number == null || pin == null) {
+            throw new IOException("Account record without " + (number == null ? "an account number" : "a PIN"));
+        }
+
+        BankAccount account = BankAccount.restore(name, number, type, balance, pin, rate, locked, 0, 0, -1, 0,
+                AccountStore.NO_RUN, null);
+        if (history != null) {
+            decodeHistory(history, account.residentHistory());
+        }
+        return account;
+    }
+
+    private static void decodeHistory(Decoder in, TransactionHistory history) throws IOException {
+        long count = in.varint();
+        long time = 0;
+        for (long i = 0; i < count; i++) {
+            time += unzigzag(in.varint());
+            byte type = (byte) in.varint();
+            if (type == TransactionHistory.NOTE) {
+                String text = in.string();
+                in.varint(); // Counterparty, unused by notes
+                history.appendNote(time, text);
+            } else {
+                long amount = unzigzag(in.varint());
+                history.append(time, type, amount, in.varint() - 1);
+            }
+        }
+    }
+
+    // Writes every account to file, replaced atomically; lsn is the last journal record they reflect
+    public static void write(Path file, List<BankAccount> accounts, long lsn) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+            Encoder block = new Encoder(1 << 16);
+            Encoder record = new Encoder(256);
+            Encoder history = new Encoder(256);
+            block.bytes(ByteBuffer.allocate(Integer.BYTES).putInt(MAGIC).array(), Integer.BYTES);
+            block.varint(FORMAT_VERSION);
+            block.varint(lsn);
+            block.varint(accounts.size());
+            for (BankAccount account : accounts) {
+                record.reset();
+                encode(account, record, history);
+                block.varint(record.size);
+                block.bytes(record.bytes, record.size);
+                if (block.size >= 1 << 16) {
+                    crc.update(block.bytes, 0, block.size);
+                    out.write(block.bytes, 0, block.size);
+                    block.reset();
+                }
+            }
+            crc.update(block.bytes, 0, block.size);
+            out.write(block.bytes, 0, block.size);
+            out.write(ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Adds every account in file to accounts; returns the journal LSN the file was written at
+    public static long read(Path file, AccountRegistry accounts) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int body = bytes.length - Integer.BYTES;
+        if (body < Integer.BYTES || ByteBuffer.wrap(bytes).getInt() != MAGIC) {
+            throw new IOException(file + " is not an account codec file");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, body);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, body, Integer.BYTES).getInt()) {
+            throw new IOException(file + " is corrupt");
+        }
+        Decoder in = new Decoder(bytes, Integer.BYTES, body);
+        long version = in.varint();
+        if (version > FORMAT_VERSION) {
+            throw new IOException(file + " was written by a newer version (format " + version + ")");
+        }
+        long lsn = in.varint();
+        long count = in.varint();
+        for (long i = 0; i < count; i++) {
+            int length = in.length();
+            accounts.add(decode(new Decoder(bytes, in.position, in.position + length)));
+            in.position += length;
+        }
+        return lsn;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Growable byte array with varint writers
+    private static final class Encoder {
+        byte[] bytes;
+        int size;
+
+        Encoder(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void bytes(byte[] source, int length) {
+            ensure(length);
+            System.arraycopy(source, 0, bytes, size, length);
+            size += length;
+        }
+
+        void varintField(int tag, long value) {
+            varint((long) tag << 3 | VARINT);
+            varint(value);
+        }
+
+        void bytesField(int tag, byte[] value) {
+            bytesField(tag, value, value.length);
+        }
+
+        void bytesField(int tag, byte[] value, int length) {
+            varint((long) tag << 3 | BYTES);
+            varint(length);
+            bytes(value, length);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    // Reads bytes[position, limit), failing on anything that runs past limit
+    private static final class Decoder {
+        final byte[] bytes;
+        int position;
+        final int limit;
+
+        Decoder(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        long varint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Truncated account record");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in account record");
+        }
+
+        int length() throws IOException {
+            long length = varint();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Truncated account record");
+            }
+            return (int) length;
+        }
+
+        String string() throws IOException {
+            int length = length();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip(int wireType) throws IOException {
+            if (wireType == VARINT) {
+                varint();
+            } else if (wireType == BYTES) {
+                position += length();
+            } else {
+                throw new IOException("Unknown wire type " + wireType + " in account record");
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+// Bulk onboarding from a CSV of customers, one per line:
+//   name,type,pin,initialDeposit      e.g.  Jane Doe,Savings,4821,150.00
+// The name is everything before the last three commas, so it may contain
+// commas itself. Blank lines, lines starting with '#' and a first line of
+// column names are skipped. Rows are checked with the same rules as the
+// console's account creation and rejected rows are reported with the reason.
+//
+// Lines are read a chunk at a time and each chunk's rows are validated and
+// built on all cores; hashing the PINs is nearly all of the work. Accounts
+// are not journaled one by one: they are handed to 'imported' and persisted
+// once at the end by 'persist', a single checkpoint. An import interrupted
+// before that checkpoint starts leaves nothing behind and can be run again.
+public class AccountImporter {
+    public static final int CHUNK_ROWS = 4096;
+
+    private final AccountRegistry accounts;
+    private final Supplier<String> numbers;
+    private final Consumer<BankAccount> imported;
+    private final Runnable persist;
+    private final Map<String, Integer> rejects = new TreeMap<>();
+    private long created;
+
+    // A built account, or the reason its row was rejected
+    private static final class Row {
+        final long lineNumber;
+        BankAccount account;
+        String reject;
+
+        Row(long lineNumber) {
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    // numbers issues a fresh account number per account; imported sees every account once it is registered
+    public AccountImporter(AccountRegistry accounts, Supplier<String> numbers, Consumer<BankAccount> imported,
+            Runnable persist) {
+        this.accounts = accounts;
+        this.numbers = numbers;
+        this.imported = imported;
+        this.persist = persist;
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        long started = System.nanoTime();
+        long openedAt = TransactionHistory.currentTimeNanos();
+        long lineNumber = 0;
+        long rows = 0;
+        String[] lines = new String[CHUNK_ROWS];
+        Row[] chunk = new Row[CHUNK_ROWS];
+        int filled = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#' || (lineNumber == 1 && isHeader(line))) {
+                continue;
+            }
+            rows++;
+            lines[filled] = line;
+            chunk[filled] = new Row(lineNumber);
+            if (++filled == CHUNK_ROWS) {
+                importChunk(lines, chunk, filled, openedAt);
+                filled = 0;
+            }
+        }
+        if (filled > 0) {
+            importChunk(lines, chunk, filled, openedAt);
+        }
+        if (created > 0) {
+            persist.run();
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Import complete: %d rows, %d accounts created, %d rejected in %.2f s (%.0f rows/s)%n",
+                rows, created, rows - created, seconds, seconds > 0 ? rows / seconds : 0.0);
+        for (Map.Entry<String, Integer> entry : rejects.entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    // Builds the chunk's accounts in parallel, then registers them in file order
+    private void importChunk(String[] lines, Row[] chunk, int size, long openedAt) {
+        IntStream.range(0, size).parallel().forEach(i -> build(lines[i], chunk[i], openedAt));
+        for (int i = 0; i < size; i++) {
+            Row row = chunk[i];
+            if (row.account != null) {
+                accounts.add(row.account);
+                imported.accept(row.account);
+                created++;
+            } else {
+                rejects.merge(row.reject, 1, Integer::sum);
+                System.out.println("Line " + row.lineNumber + " rejected: " + row.reject);
+            }
+        }
+    }
+
+    private void build(String line, Row row, long openedAt) {
+        int third = line.lastIndexOf(',');
+        int second = third <= 0 ? -1 : line.lastIndexOf(',', third - 1);
+        int first = second <= 0 ? -1 : line.lastIndexOf(',', second - 1);
+        if (first < 0) {
+            row.reject = "malformed record";
+            return;
+        }
+        String name = line.substring(0, first).trim();
+        String type = line.substring(first + 1, second).trim();
+        int pin;
+        long initialDeposit;
+        try {
+            pin = Integer.parseInt(line.substring(second + 1, third).trim());
+            initialDeposit = Money.parse(line.substring(third + 1).trim());
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            row.reject = "malformed record";
+            return;
+        }
+
+        if (name.getBytes(StandardCharsets.UTF_8).length > AccountStore.MAX_NAME_BYTES) {
+            row.reject = "name is too long";
+        } else if (!type.equalsIgnoreCase("Savings") && !type.equalsIgnoreCase("Checking")) {
+            row.reject = "type must be Savings or Checking";
+        } else if (pin < 1000 || pin > 9999) {
+            row.reject = "PIN must be a 4-digit number";
+        } else if (initialDeposit < 0) {
+            row.reject = "initial deposit cannot be negative";
+        } else {
+            type = type.equalsIgnoreCase("Savings") ? "Savings" : "Checking";
+            row.account = new BankAccount(name, numbers.get(), type, initialDeposit, PinHash.create(pin),
+                    BankApp.interestRateFor(type), openedAt, false);
+        }
+    }
+
+    private static boolean isHeader(String line) {
+        return line.regionMatches(true, 0, "name,", 0, "name,".length());
+    }
+}
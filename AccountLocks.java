@@ -0,0 +1,57 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+// Striped locks guarding account state. Each account maps to one stripe by
+// its account number; operations touching two accounts always take the lower
+// stripe first, so concurrent transfers in opposite directions cannot deadlock.
+final class AccountLocks {
+    private static final int STRIPES = 1024;
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private AccountLocks() {
+    }
+
+    static void lock(BankAccount account) {
+        LOCKS[stripeOf(account)].lock();
+    }
+
+    // For callers that already hold another lock and must not wait
+    static boolean tryLock(BankAccount account) {
+        return LOCKS[stripeOf(account)].tryLock();
+    }
+
+    static void unlock(BankAccount account) {
+        LOCKS[stripeOf(account)].unlock();
+    }
+
+    static void lock(BankAccount first, BankAccount second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        if (a == b) {
+            LOCKS[a].lock();
+        } else {
+            LOCKS[Math.min(a, b)].lock();
+            LOCKS[Math.max(a, b)].lock();
+        }
+    }
+
+    static void unlock(BankAccount first, BankAccount second) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        LOCKS[Math.max(a, b)].unlock();
+        if (a != b) {
+            LOCKS[Math.min(a, b)].unlock();
+        }
+    }
+
+    private static int stripeOf(BankAccount account) {
+        int h = account.getAccountNumber().hashCode();
+        h ^= h >>> 16;
+        return (h * 0x9E3779B9) >>> 22;
+    }
+}
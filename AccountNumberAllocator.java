@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.zip.CRC32;
+
+// Issues account number keys without drawing and retrying. The n-th number is
+// a fixed permutation of n over the 8-digit space (a four-round Feistel network
+// on two 4-digit halves, keyed by a random seed chosen when the file is
+// created) followed by a Luhn check digit, so numbers look scattered but can
+// never repeat, and each costs O(1) however many have been issued.
+//
+// Sequence numbers are reserved BLOCK at a time: the end of the reserved block
+// is made durable in a small file, [magic][version][seed][reserved][crc32]
+// replaced atomically, before any number from it is handed out. A restart
+// continues after the last reservation, skipping whatever of it was unused.
+public class AccountNumberAllocator {
+    static final long CAPACITY = 100_000_000L;
+    private static final int HALF = 10_000; // CAPACITY = HALF * HALF
+    private static final int ROUNDS = 4;
+    private static final long BLOCK = 10_000;
+
+    private static final int MAGIC = 0x42414E41; // "BANA"
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+
+    private final Path file; // null for an allocator that is not persisted
+    private final long seed;
+    private long next;
+    private long reserved;
+
+    // Not persisted: every run starts a new sequence, e.g. for benchmarks
+    public AccountNumberAllocator() {
+        this.file = null;
+        this.seed = new SecureRandom().nextLong();
+    }
+
+    public AccountNumberAllocator(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            CRC32 crc = new CRC32();
+            crc.update(in.array(), 0, Math.max(0, in.capacity() - Integer.BYTES));
+            if (in.capacity() != FILE_SIZE || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION
+                    || in.getInt(FILE_SIZE - Integer.BYTES) != (int) crc.getValue()) {
+                throw new IOException("Account number file " + file + " is corrupt");
+            }
+            this.seed = in.getLong();
+            this.next = in.getLong();
+            this.reserved = next;
+        } else {
+            this.seed = new SecureRandom().nextLong();
+            writeReservation(0);
+        }
+    }
+
+    // The next unused account number key; ACC + its 9 digits is the account number
+    public synchronized long next() {
+        if (next == CAPACITY) {
+            throw new IllegalStateException("All " + CAPACITY + " account numbers have been issued");
+        }
+        if (next == reserved) {
+            long end = Math.min(CAPACITY, reserved + BLOCK);
+            try {
+                writeReservation(end);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot reserve account numbers", e);
+            }
+        }
+        long value = permute(next++);
+        return value * 10 + checkDigit(value);
+    }
+
+    // True if the key's last digit is the check digit of the others. Numbers issued
+    // before the allocator existed were drawn at random and mostly fail this.
+    public static boolean hasValidCheckDigit(long key) {
+        return key >= 0 && key % 10 == checkDigit(key / 10);
+    }
+
+    private void writeReservation(long end) throws IOException {
+        if (file != null) {
+            ByteBuffer out = ByteBuffer.allocate(FILE_SIZE);
+            out.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(seed).putLong(end);
+            CRC32 crc = new CRC32();
+            crc.update(out.array(), 0, out.position());
+            out.putInt((int) crc.getValue());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, out.array());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        reserved = end;
+    }
+
+    // A bijection on [0, CAPACITY): each round replaces one half with itself plus a keyed
+    // hash of the other, modulo HALF, which the inverse round can always subtract again
+    private long permute(long sequence) {
+        int left = (int) (sequence / HALF);
+        int right = (int) (sequence % HALF);
+        for (int round = 0; round < ROUNDS; round++) {
+            int mixed = (left + roundFunction(right, round)) % HALF;
+            left = right;
+            right = mixed;
+        }
+        return (long) left * HALF + right;
+    }
+
+    private int roundFunction(int half, int round) {
+        long x = (half + 1L) * 0x9E3779B97F4A7C15L ^ (seed + round * 0xBF58476D1CE4E5B9L);
+        x = (x ^ (x >>> 31)) * 0x94D049BB133111EBL;
+        x ^= x >>> 29;
+        return (int) Long.remainderUnsigned(x, HALF);
+    }
+
+    // Luhn: doubling every second digit from the right catches any single wrong digit and most swaps
+    static int checkDigit(long value) {
+        int sum = 0;
+        boolean doubled = true;
+        for (long rest = value; rest > 0; rest /= 10) {
+            int digit = (int) (rest % 10);
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
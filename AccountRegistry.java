@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory index of all accounts. Account numbers of the form ACC + 9 digits
+// are packed into a primitive long and kept in open-addressing tables, so
+// lookups avoid String hashing and boxing; holder names get a secondary index.
+// Keys are partitioned into SHARDS tables by hash, each with its own lock, so
+// lookups and additions on different shards never contend; AccountStore uses
+// the same partitioning for its shard files. The creation-order list and the
+// holder name index share a separate lock.
+public class AccountRegistry {
+    public static final int SHARDS = 16;
+    private static final int SHARD_BITS = Integer.numberOfTrailingZeros(SHARDS);
+    private static final String PREFIX = "ACC";
+    private static final int DIGITS = 9;
+    private static final float MAX_LOAD = 0.5f;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final List<BankAccount> accounts = new ArrayList<>();
+    private final Map<String, List<BankAccount>> byHolderName = new HashMap<>();
+    // Numbers that do not follow the ACC + 9 digits format (never generated, but tolerated on load)
+    private final Map<String, BankAccount> irregular = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AccountTotals totals = new AccountTotals();
+
+    public AccountRegistry() {
+        this(16);
+    }
+
+    public AccountRegistry(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / SHARDS / MAX_LOAD)) - 1) << 1;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity);
+        }
+    }
+
+    public AccountRegistry(List<BankAccount> existing) {
+        this(existing.size());
+        for (BankAccount account : existing) {
+            add(account);
+        }
+    }
+
+    // Returns the packed key for a well-formed account number, or -1
+    public static long toKey(String accountNumber) {
+        return accountNumber == null ? -1 : toKey(accountNumber, 0, accountNumber.length());
+    }
+
+    // Same, for the account number at text[start, end)
+    public static long toKey(CharSequence text, int start, int end) {
+        if (end - start != PREFIX.length() + DIGITS) {
+            return -1;
+        }
+        for (int i = 0; i < PREFIX.length(); i++) {
+            if (text.charAt(start + i) != PREFIX.charAt(i)) {
+                return -1;
+            }
+        }
+        long key = 0;
+        for (int i = start + PREFIX.length(); i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    // The shard a packed key belongs to; the top hash bits, so it is independent of the probe position
+    public static int shardOf(long key) {
+        return hash(key) >>> (Integer.SIZE - SHARD_BITS);
+    }
+
+    public static String toAccountNumber(long key) {
+        char[] chars = new char[PREFIX.length() + DIGITS];
+        PREFIX.getChars(0, PREFIX.length(), chars, 0);
+        for (int i = chars.length - 1; i >= PREFIX.length(); i--) {
+            chars[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        return new String(chars);
+    }
+
+    public void add(BankAccount account) {
+        long key = toKey(account.getAccountNumber());
+        if (key >= 0) {
+            shards[shardOf(key)].add(key, account);
+        }
+        lock.writeLock().lock();
+        try {
+            if (key < 0 && irregular.putIfAbsent(account.getAccountNumber(), account) != null) {
+                throw new IllegalArgumentException("Duplicate account number: " + account.getAccountNumber());
+            }
+            accounts.add(account);
+            byHolderName.computeIfAbsent(normalize(account.getAccountHolderName()), k -> new ArrayList<>(1))
+                    .add(account);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        account.countIn(totals);
+    }
+
+    // Running figures over every account added, see AccountTotals
+    public AccountTotals totals() {
+        return totals;
+    }
+
+    public BankAccount get(String accountNumber) {
+        long key = toKey(accountNumber);
+        if (key >= 0) {
+            return get(key);
+        }
+        lock.readLock().lock();
+        try {
+            return irregular.isEmpty() ? null : irregular.get(accountNumber);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BankAccount get(long key) {
+        return shards[shardOf(key)].get(key);
+    }
+
+    public boolean contains(long key) {
+        return get(key) != null;
+    }
+
+    public List<BankAccount> findByHolderName(String name) {
+        lock.readLock().lock();
+        try {
+            List<BankAccount> matches = byHolderName.get(normalize(name));
+            return matches == null ? Collections.emptyList() : new ArrayList<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return accounts.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Copy of the accounts in the order they were added
+    public List<BankAccount> asList() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(accounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // One partition of the key index: a linear-probing table behind its own lock
+    private static final class Shard {
+        private long[] keys;
+        private BankAccount[] slots;
+        private int mask;
+        private int size;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Shard(int capacity) {
+            keys = new long[capacity];
+            slots = new BankAccount[capacity];
+            mask = capacity - 1;
+        }
+
+        BankAccount get(long key) {
+            lock.readLock().lock();
+            try {
+                return slots[indexOf(key)];
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void add(long key, BankAccount account) {
+            lock.writeLock().lock();
+            try {
+                if (size + 1 > slots.length * MAX_LOAD) {
+                    resize();
+                }
+                int index = indexOf(key);
+                if (slots[index] != null) {
+                    throw new IllegalArgumentException("Duplicate account number: " + account.getAccountNumber());
+                }
+                keys[index] = key;
+                slots[index] = account;
+                size++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Linear probing: the slot holding key, or the empty slot where it belongs
+        private int indexOf(long key) {
+            int index = hash(key) & mask;
+            while (slots[index] != null && keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            BankAccount[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = new BankAccount[oldSlots.length * 2];
+            mask = slots.length - 1;
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != null) {
+                    int index = indexOf(oldKeys[i]);
+                    keys[index] = oldKeys[i];
+                    slots[index] = oldSlots[i];
+                }
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
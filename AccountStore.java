@@ -0,0 +1,662 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Binary account store. Each account owns one fixed-width slot in a
+// memory-mapped file, so loading reads fields straight out of the mapping and
+// a checkpoint rewrites only the slots of accounts that changed. History
+// entries are appended to a companion file, one run of entries per changed
+// account and checkpoint, each run pointing back at the account's previous
+// one. A slot records the account's newest run and entry count, so loading
+// never reads history: an account's runs are followed back only when its
+// history is viewed, and runs left by a torn checkpoint are never reached.
+// A store may hold one shard of the accounts (see ShardedAccountStore); its
+// header records which one, so files are never mixed up between shards.
+//
+// Slots are overwritten in place, and a power failure can tear a slot that
+// was being written. So a checkpoint first makes a copy of the new slot
+// images durable in a side file (bank_accounts.db.dw), checksummed as a
+// whole, and removes it once the slots and header are forced. Opening a
+// store that still has an intact side file rewrites those slots from it,
+// finishing the interrupted checkpoint; a torn side file means the slots
+// were never touched and it is discarded. The side file only covers a
+// checkpoint in progress: a slot that fails its CRC at any other time, e.g.
+// from media corruption, has no earlier copy to fall back to, and load fails.
+//
+// Slot layout (little fields first, name last, CRC32 over bytes 0..252):
+//   0 lsn | 8 key | 16 balance | 24 rate | 28 legacy pin | 32 history count
+//   36 type | 37 locked | 38 failed attempts (no longer written) | 40 history head
+//   48 pin hash (PinHash.ENCODED_SIZE bytes) | 100..120 reserved
+//   120 name length | 122 name (UTF-8) | 252 crc
+// A PIN not yet hashed is kept at 28 with zeros at 48, as slots written before hashing have it.
+// History run: [key][entry count][body bytes][previous run] then per entry
+//   [time][type][amount][counterparty], NOTE entries followed by their text
+//   (amount holds its length)
+public class AccountStore {
+    private static final int MAGIC = 0x42414E53; // "BANS"
+    private static final int FORMAT_VERSION = 2;
+    // Version 1 history files are a flat sequence of entries, each with its account key
+    private static final int LEGACY_FORMAT_VERSION = 1;
+    private static final int HISTORY_MAGIC = 0x42414E48; // "BANH"
+    // [magic][checkpoint lsn][slot count][images] then [slot][image] per image and a CRC32 of it all
+    private static final int DOUBLEWRITE_MAGIC = 0x42414E44; // "BAND"
+    private static final int DOUBLEWRITE_HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_SLOT_COUNT = 12;
+    private static final int HEADER_CHECKPOINT_LSN = 16;
+    private static final int HEADER_SHARD = 24;
+    private static final int HEADER_SHARD_COUNT = 28;
+
+    static final int SLOT_SIZE = 256;
+    private static final int SLOTS_PER_SEGMENT = 4096; // 1 MB per mapping
+    private static final int SEGMENT_SIZE = SLOTS_PER_SEGMENT * SLOT_SIZE;
+
+    private static final int LSN = 0;
+    private static final int KEY = 8;
+    private static final int BALANCE = 16;
+    private static final int RATE = 24;
+    private static final int LEGACY_PIN = 28;
+    private static final int HISTORY_COUNT = 32;
+    private static final int TYPE = 36;
+    private static final int LOCKED = 37;
+    private static final int FAILED_ATTEMPTS = 38;
+    private static final int HISTORY_HEAD = 40;
+    private static final int PIN_HASH = 48;
+    private static final int NAME_LENGTH = 120;
+    private static final int NAME = 122;
+    private static final int CRC = 252;
+    public static final int MAX_NAME_BYTES = CRC - NAME;
+
+    private static final byte SAVINGS = 1;
+    private static final byte CHECKING = 2;
+
+    private static final int HISTORY_FILE_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int LEGACY_HISTORY_RECORD_SIZE = 4 * Long.BYTES + 1;
+    private static final int RUN_HEADER_SIZE = 2 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int ENTRY_SIZE = 3 * Long.BYTES + 1;
+    static final long NO_RUN = 0; // The file header sits at offset 0, so no run starts there
+
+    private final Path slotPath;
+    private final Path historyPath;
+    private final Path doublewritePath;
+    private final FileChannel slots;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private FileChannel history;
+    private int slotCount;
+    // Set until a version 1 store has been upgraded by load()
+    private boolean legacyFormat;
+    private final CRC32 crc = new CRC32();
+
+    public AccountStore(String slotFile, String historyFile) throws IOException {
+        this(slotFile, historyFile, 0, 1);
+    }
+
+    public AccountStore(String slotFile, String historyFile, int shard, int shardCount) throws IOException {
+        this.slotPath = Paths.get(slotFile);
+        this.historyPath = Paths.get(historyFile);
+        this.doublewritePath = Paths.get(slotFile + ".dw");
+        this.slots = FileChannel.open(slotPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = slots.size() == 0;
+        this.header = slots.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (created) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putInt(8, SLOT_SIZE);
+            header.putInt(HEADER_SHARD, shard);
+            header.putInt(HEADER_SHARD_COUNT, shardCount);
+            header.force();
+        } else if (header.getInt(0) != MAGIC) {
+            throw new IOException(slotFile + " is not an account store");
+        } else if (header.getInt(4) != FORMAT_VERSION && header.getInt(4) != LEGACY_FORMAT_VERSION
+                || header.getInt(8) != SLOT_SIZE) {
+            throw new IOException("Unsupported account store version");
+        }
+        // Stores written before sharding have a zero count: the single shard of one
+        int storedShardCount = Math.max(1, header.getInt(HEADER_SHARD_COUNT));
+        if (header.getInt(HEADER_SHARD) != shard || storedShardCount != shardCount) {
+            throw new IOException(slotFile + " holds shard " + header.getInt(HEADER_SHARD) + " of "
+                    + storedShardCount + ", expected shard " + shard + " of " + shardCount);
+        }
+        slotCount = header.getInt(HEADER_SLOT_COUNT);
+
+        this.history = openHistory();
+        ByteBuffer historyHeader = ByteBuffer.allocate(HISTORY_FILE_HEADER_SIZE);
+        if (history.size() == 0) {
+            historyHeader.putInt(HISTORY_MAGIC).putInt(header.getInt(4)).flip();
+            history.write(historyHeader, 0);
+            history.force(true);
+        } else if (history.read(historyHeader, 0) != HISTORY_FILE_HEADER_SIZE
+                || historyHeader.getInt(0) != HISTORY_MAGIC) {
+            throw new IOException(historyFile + " is not a history file");
+        } else if (header.getInt(4) == LEGACY_FORMAT_VERSION && historyHeader.getInt(4) == FORMAT_VERSION) {
+            // An upgrade replaced the history file but did not get to update the header
+            header.putInt(4, FORMAT_VERSION);
+            header.force();
+        }
+        legacyFormat = header.getInt(4) == LEGACY_FORMAT_VERSION;
+        if (legacyFormat && slotCount == 0) {
+            history.truncate(0);
+            history.write(historyHeader.clear().putInt(HISTORY_MAGIC).putInt(FORMAT_VERSION).flip(), 0);
+            history.force(true);
+            header.putInt(4, FORMAT_VERSION);
+            header.force();
+            legacyFormat = false;
+        }
+        recoverSlotImages();
+    }
+
+    public int size() {
+        return slotCount;
+    }
+
+    public boolean isEmpty() {
+        return slotCount == 0;
+    }
+
+    // Every journal record up to this LSN is reflected in the store
+    public long checkpointLsn() {
+        return header.getLong(HEADER_CHECKPOINT_LSN);
+    }
+
+    // Builds the registry straight from the mapped slots
+    public AccountRegistry load() throws IOException {
+        AccountRegistry accounts = new AccountRegistry(slotCount);
+        load(accounts);
+        return accounts;
+    }
+
+    // Adds this store's accounts to a registry that other shards may be loading into concurrently
+    public void load(AccountRegistry accounts) throws IOException {
+        List<BankAccount> bySlot = new ArrayList<>(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            BankAccount account = readSlot(slot);
+            accounts.add(account);
+            bySlot.add(account);
+        }
+        if (legacyFormat) {
+            loadLegacyHistory(accounts, bySlot);
+            upgrade(bySlot);
+        }
+    }
+
+    private BankAccount readSlot(int slot) throws IOException {
+        MappedByteBuffer segment = segment(slot);
+        int base = (slot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+        crc.reset();
+        crc.update(segment.duplicate().limit(base + CRC).position(base));
+        if ((int) crc.getValue() != segment.getInt(base + CRC)) {
+            // No older image is kept to fall back to, and the journal only holds changes since the last
+            // checkpoint, so the account cannot be rebuilt; refuse to start rather than lose it
+            throw new IOException("Account slot " + slot + " of " + slotPath.getFileName()
+                    + " is corrupt; restore the file from a backup");
+        }
+
+        byte[] name = new byte[segment.getShort(base + NAME_LENGTH)];
+        segment.get(base + NAME, name);
+        return BankAccount.restore(new String(name, StandardCharsets.UTF_8),
+                AccountRegistry.toAccountNumber(segment.getLong(base + KEY)),
+                segment.get(base + TYPE) == SAVINGS ? "Savings" : "Checking",
+                segment.getLong(base + BALANCE), readPin(segment, base), segment.getInt(base + RATE),
+                segment.get(base + LOCKED) != 0, segment.get(base + FAILED_ATTEMPTS),
+                segment.getLong(base + LSN), slot, segment.getInt(base + HISTORY_COUNT),
+                segment.getLong(base + HISTORY_HEAD), legacyFormat ? null : this);
+    }
+
+    private static PinHash readPin(MappedByteBuffer segment, int base) {
+        if (segment.getInt(base + PIN_HASH) == 0) {
+            return PinHash.legacy(segment.getInt(base + LEGACY_PIN));
+        }
+        return PinHash.read(segment.duplicate().position(base + PIN_HASH));
+    }
+
+    // Reads a version 1 history file, routing records to their accounts in file order.
+    // Records beyond an account's stored count come from a checkpoint that did not
+    // finish; the journal still holds those operations, so they are dropped.
+    private void loadLegacyHistory(AccountRegistry accounts, List<BankAccount> bySlot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(history.position(HISTORY_FILE_HEADER_SIZE)), 1 << 16))) {
+            while (true) {
+                long key;
+                try {
+                    key = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long time = in.readLong();
+                byte type = in.readByte();
+                long amount = in.readLong();
+                long counterparty = in.readLong();
+                String note = null;
+                if (type == TransactionHistory.NOTE) {
+                    byte[] text = new byte[(int) amount];
+                    in.readFully(text);
+                    note = new String(text, StandardCharsets.UTF_8);
+                }
+
+                BankAccount account = accounts.get(key);
+                if (account == null || account.residentHistory().size() >= account.storedHistory) {
+                    continue;
+                } else if (note != null) {
+                    account.residentHistory().appendNote(time, note);
+                } else {
+                    account.residentHistory().append(time, type, amount, counterparty);
+                }
+            }
+        } catch (EOFException e) {
+            // Torn final record
+        }
+
+        for (BankAccount account : bySlot) {
+            if (account.residentHistory().size() != account.storedHistory) {
+                throw new IOException("History of account " + account.getAccountNumber() + " is incomplete");
+            }
+        }
+    }
+
+    // Rewrites a version 1 history file as one run per account and points each slot at
+    // its run. The slots are updated before the new file replaces the old one and the
+    // header last, so an interrupted upgrade either starts over or, if the new file is
+    // in place, only has the header left to update (see the constructor).
+    private void upgrade(List<BankAccount> bySlot) throws IOException {
+        Path temp = historyPath.resolveSibling(historyPath.getFileName() + ".tmp");
+        long[] heads = new long[bySlot.size()];
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(HISTORY_MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            long written = 0;
+            for (int i = 0; i < bySlot.size(); i++) {
+                BankAccount account = bySlot.get(i);
+                int count = account.historySize();
+                heads[i] = count == 0 ? NO_RUN : written + bytes.size();
+                encodeRun(account, 0, count, NO_RUN, data);
+                if (bytes.size() >= 1 << 16) {
+                    writeFully(out, bytes.toByteArray());
+                    written += bytes.size();
+                    bytes.reset();
+                }
+            }
+            writeFully(out, bytes.toByteArray());
+            out.force(true);
+        }
+
+        BitSet touched = new BitSet();
+        for (int i = 0; i < bySlot.size(); i++) {
+            BankAccount account = bySlot.get(i);
+            int slot = account.storeSlot;
+            segment(slot).put((slot % SLOTS_PER_SEGMENT) * SLOT_SIZE, encodeSlot(account, heads[i]));
+            touched.set(slot / SLOTS_PER_SEGMENT);
+        }
+        for (int s = touched.nextSetBit(0); s >= 0; s = touched.nextSetBit(s + 1)) {
+            segments.get(s).force();
+        }
+        history.close();
+        Files.move(temp, historyPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        history = openHistory();
+        header.putInt(4, FORMAT_VERSION);
+        header.force();
+        legacyFormat = false;
+
+        for (int i = 0; i < bySlot.size(); i++) {
+            BankAccount account = bySlot.get(i);
+            account.historyHead = heads[i];
+            account.historyStore = this;
+            account.releaseStoredHistory();
+        }
+    }
+
+    // Reads an account's stored history: follows its runs back from head, then
+    // decodes them oldest first. Safe to call while a checkpoint appends.
+    TransactionHistory readHistory(long key, long head, int count) throws IOException {
+        TransactionHistory entries = new TransactionHistory();
+        for (long[] run : historyRuns(key, head, count)) {
+            decodeRun(key, run, 0, (int) run[1], entries);
+        }
+        return entries;
+    }
+
+    // Appends stored entries [from, to) of an account's history to into, decoding only the
+    // runs that hold them, so memory use is bounded by a run rather than the whole history
+    void readHistory(long key, long head, int count, int from, int to, TransactionHistory into)
+            throws IOException {
+        int start = 0;
+        for (long[] run : historyRuns(key, head, count)) {
+            int entries = (int) run[1];
+            if (start + entries > from && start < to) {
+                decodeRun(key, run, Math.max(from, start) - start, Math.min(to, start + entries) - start, into);
+            }
+            start += entries;
+        }
+    }
+
+    // Index of the first stored entry at or after epochNanos (count if none): a binary search
+    // over the runs by their first entry's time, then within the one run that can hold it
+    int historyLowerBound(long key, long head, int count, long epochNanos) throws IOException {
+        List<long[]> runs = historyRuns(key, head, count);
+        ByteBuffer time = ByteBuffer.allocate(Long.BYTES);
+        int low = 0;
+        int high = runs.size();
+        while (low < high) { // First run whose first entry is at or after epochNanos
+            int mid = (low + high) >>> 1;
+            readFully(time.clear(), runs.get(mid)[0]);
+            if (time.getLong(0) < epochNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return 0;
+        }
+        int start = 0;
+        for (int r = 0; r < low - 1; r++) {
+            start += (int) runs.get(r)[1];
+        }
+        long[] run = runs.get(low - 1); // Starts before epochNanos, so the answer lies in it or just after it
+        TransactionHistory entries = new TransactionHistory();
+        decodeRun(key, run, 0, (int) run[1], entries);
+        return start + entries.lowerBound(epochNanos);
+    }
+
+    // An account's runs oldest first, each {body offset, entry count, body bytes}
+    private List<long[]> historyRuns(long key, long head, int count) throws IOException {
+        List<long[]> runs = new ArrayList<>();
+        ByteBuffer runHeader = ByteBuffer.allocate(RUN_HEADER_SIZE);
+        int total = 0;
+        for (long offset = head; offset != NO_RUN; ) {
+            readFully(runHeader.clear(), offset);
+            int entries = runHeader.getInt(Long.BYTES);
+            int bytes = runHeader.getInt(Long.BYTES + Integer.BYTES);
+            long previous = runHeader.getLong(Long.BYTES + 2 * Integer.BYTES);
+            if (runHeader.getLong(0) != key || entries <= 0 || total + entries > count || previous >= offset) {
+                throw new IOException("History of account " + AccountRegistry.toAccountNumber(key) + " is corrupt");
+            }
+            runs.add(new long[] {offset + RUN_HEADER_SIZE, entries, bytes});
+            total += entries;
+            offset = previous;
+        }
+        if (total != count) {
+            throw new IOException("History of account " + AccountRegistry.toAccountNumber(key) + " is incomplete");
+        }
+        Collections.reverse(runs);
+        return runs;
+    }
+
+    // Appends the run's entries [from, to) to into; entries vary in size, so earlier ones are decoded and skipped
+    private void decodeRun(long key, long[] run, int from, int to, TransactionHistory into) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate((int) run[2]);
+        readFully(body, run[0]);
+        body.flip();
+        try {
+            for (int i = 0; i < to; i++) {
+                long time = body.getLong();
+                byte type = body.get();
+                long amount = body.getLong();
+                long counterparty = body.getLong();
+                if (type == TransactionHistory.NOTE) {
+                    byte[] text = new byte[(int) amount];
+                    body.get(text);
+                    if (i >= from) {
+                        into.appendNote(time, new String(text, StandardCharsets.UTF_8));
+                    }
+                } else if (i >= from) {
+                    into.append(time, type, amount, counterparty);
+                }
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("History of account " + AccountRegistry.toAccountNumber(key) + " is corrupt");
+        }
+    }
+
+    // Writes the given changed accounts and records that the store now covers
+    // every journal record up to lsn. History is appended and forced first, then
+    // the slots, then the header, so a crash at any point leaves either the old
+    // or the new state of each slot, and history runs only the new state refers to.
+    public synchronized void checkpoint(List<BankAccount> changed, long lsn) throws IOException {
+        ByteArrayOutputStream historyBytes = new ByteArrayOutputStream();
+        DataOutputStream historyOut = new DataOutputStream(historyBytes);
+        byte[][] images = new byte[changed.size()][];
+        int[] slotOf = new int[changed.size()];
+        int[] historyOf = new int[changed.size()];
+        long[] headOf = new long[changed.size()];
+        int newCount = slotCount;
+        long historyEnd = history.size();
+
+        for (int i = 0; i < changed.size(); i++) {
+            BankAccount account = changed.get(i);
+            slotOf[i] = account.storeSlot >= 0 ? account.storeSlot : newCount++;
+            AccountLocks.lock(account);
+            try {
+                historyOf[i] = account.historySize();
+                headOf[i] = account.historyHead;
+                if (historyOf[i] > account.storedHistory) {
+                    headOf[i] = historyEnd + historyBytes.size();
+                    encodeRun(account, account.storedHistory, historyOf[i], account.historyHead, historyOut);
+                }
+                images[i] = encodeSlot(account, headOf[i]);
+            } finally {
+                AccountLocks.unlock(account);
+            }
+        }
+
+        long started = Metrics.start();
+        if (historyBytes.size() > 0) {
+            history.position(historyEnd);
+            writeFully(history, historyBytes.toByteArray());
+            history.force(false);
+        }
+
+        long doublewritten = 0;
+        if (images.length > 0) {
+            doublewritten = writeSlotImages(slotOf, images, newCount, lsn);
+        }
+        applySlotImages(slotOf, images, newCount, lsn);
+        Files.deleteIfExists(doublewritePath);
+        Metrics.record(Metrics.STORE_FSYNC, started);
+        Metrics.addBytes(Metrics.STORE_BYTES, historyBytes.size() + doublewritten
+                + (long) images.length * SLOT_SIZE + HEADER_SIZE);
+
+        for (int i = 0; i < changed.size(); i++) {
+            BankAccount account = changed.get(i);
+            AccountLocks.lock(account);
+            try {
+                account.storeSlot = slotOf[i];
+                account.storedHistory = historyOf[i];
+                account.historyHead = headOf[i];
+                account.historyStore = this;
+            } finally {
+                AccountLocks.unlock(account);
+            }
+        }
+    }
+
+    // Makes the checkpoint's slot images durable before any slot is overwritten; returns the bytes written
+    private long writeSlotImages(int[] slotOf, byte[][] images, int newCount, long lsn) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(DOUBLEWRITE_HEADER_SIZE
+                + images.length * (Integer.BYTES + SLOT_SIZE) + Integer.BYTES);
+        out.putInt(DOUBLEWRITE_MAGIC).putLong(lsn).putInt(newCount).putInt(images.length);
+        for (int i = 0; i < images.length; i++) {
+            out.putInt(slotOf[i]).put(images[i]);
+        }
+        crc.reset();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        try (FileChannel file = FileChannel.open(doublewritePath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(file, out.array());
+            file.force(false);
+        }
+        return out.capacity();
+    }
+
+    private void applySlotImages(int[] slotOf, byte[][] images, int newCount, long lsn) throws IOException {
+        BitSet touched = new BitSet();
+        for (int i = 0; i < images.length; i++) {
+            MappedByteBuffer segment = segment(slotOf[i]);
+            segment.put((slotOf[i] % SLOTS_PER_SEGMENT) * SLOT_SIZE, images[i]);
+            touched.set(slotOf[i] / SLOTS_PER_SEGMENT);
+        }
+        for (int s = touched.nextSetBit(0); s >= 0; s = touched.nextSetBit(s + 1)) {
+            segments.get(s).force();
+        }
+
+        header.putInt(HEADER_SLOT_COUNT, newCount);
+        header.putLong(HEADER_CHECKPOINT_LSN, lsn);
+        header.force();
+        slotCount = newCount;
+    }
+
+    // Finishes a checkpoint that was interrupted after its slot images were made durable
+    private void recoverSlotImages() throws IOException {
+        if (!Files.exists(doublewritePath)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(doublewritePath));
+        int images = in.capacity() >= DOUBLEWRITE_HEADER_SIZE ? in.getInt(DOUBLEWRITE_HEADER_SIZE - Integer.BYTES) : -1;
+        int expected = DOUBLEWRITE_HEADER_SIZE + images * (Integer.BYTES + SLOT_SIZE) + Integer.BYTES;
+        crc.reset();
+        crc.update(in.array(), 0, Math.max(0, in.capacity() - Integer.BYTES));
+        if (images >= 0 && in.capacity() == expected && in.getInt(0) == DOUBLEWRITE_MAGIC
+                && in.getInt(expected - Integer.BYTES) == (int) crc.getValue()) {
+            long lsn = in.getLong(Integer.BYTES);
+            int newCount = in.getInt(Integer.BYTES + Long.BYTES);
+            in.position(DOUBLEWRITE_HEADER_SIZE);
+            int[] slotOf = new int[images];
+            byte[][] image = new byte[images][SLOT_SIZE];
+            for (int i = 0; i < images; i++) {
+                slotOf[i] = in.getInt();
+                in.get(image[i]);
+            }
+            if (lsn >= checkpointLsn()) { // Else a later checkpoint has already superseded it
+                applySlotImages(slotOf, image, Math.max(slotCount, newCount), lsn);
+            }
+        }
+        Files.delete(doublewritePath);
+    }
+
+    // Caller holds the account's lock
+    private byte[] encodeSlot(BankAccount account, long historyHead) throws IOException {
+        long key = AccountRegistry.toKey(account.getAccountNumber());
+        if (key < 0) {
+            throw new IOException("Account number " + account.getAccountNumber() + " cannot be stored");
+        }
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putLong(LSN, account.lastLsn);
+        slot.putLong(KEY, key);
+        slot.putLong(BALANCE, account.getBalance());
+        slot.putInt(RATE, account.getInterestRate());
+        PinHash pin = account.getPinHash();
+        if (pin.isLegacy()) {
+            slot.putInt(LEGACY_PIN, pin.legacyPin());
+        } else {
+            pin.write(slot.duplicate().position(PIN_HASH));
+        }
+        slot.putInt(HISTORY_COUNT, account.historySize());
+        slot.put(TYPE, "Savings".equalsIgnoreCase(account.getAccountType()) ? SAVINGS : CHECKING);
+        slot.put(LOCKED, (byte) (account.isLocked() ? 1 : 0));
+        slot.putLong(HISTORY_HEAD, historyHead);
+
+        // Overlong names from legacy snapshots are cut at a character boundary
+        ByteBuffer name = slot.duplicate().position(NAME).limit(NAME + MAX_NAME_BYTES);
+        StandardCharsets.UTF_8.newEncoder().encode(CharBuffer.wrap(account.getAccountHolderName()), name, true);
+        slot.putShort(NAME_LENGTH, (short) (name.position() - NAME));
+
+        crc.reset();
+        crc.update(slot.array(), 0, CRC);
+        slot.putInt(CRC, (int) crc.getValue());
+        return slot.array();
+    }
+
+    // Writes the account's history entries [from, to) as one run linked to the previous run.
+    // Entries before historyBase are not in memory, so 'from' must not be below it.
+    private static void encodeRun(BankAccount account, int from, int to, long previous, DataOutputStream out)
+            throws IOException {
+        if (from == to) {
+            return;
+        }
+        TransactionHistory entries = account.residentHistory();
+        int base = account.historyBase;
+        int bytes = (to - from) * ENTRY_SIZE;
+        for (int i = from - base; i < to - base; i++) {
+            if (entries.typeAt(i) == TransactionHistory.NOTE) {
+                bytes += entries.noteAt(i).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        out.writeLong(AccountRegistry.toKey(account.getAccountNumber()));
+        out.writeInt(to - from);
+        out.writeInt(bytes);
+        out.writeLong(previous);
+        for (int i = from - base; i < to - base; i++) {
+            out.writeLong(entries.timeAt(i));
+            out.writeByte(entries.typeAt(i));
+            if (entries.typeAt(i) == TransactionHistory.NOTE) {
+                byte[] text = entries.noteAt(i).getBytes(StandardCharsets.UTF_8);
+                out.writeLong(text.length);
+                out.writeLong(entries.counterpartyAt(i));
+                out.write(text);
+            } else {
+                out.writeLong(entries.amountAt(i));
+                out.writeLong(entries.counterpartyAt(i));
+            }
+        }
+    }
+
+    private MappedByteBuffer segment(int slot) throws IOException {
+        int index = slot / SLOTS_PER_SEGMENT;
+        while (segments.size() <= index) {
+            long position = HEADER_SIZE + (long) segments.size() * SEGMENT_SIZE;
+            segments.add(slots.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE));
+        }
+        return segments.get(index);
+    }
+
+    private FileChannel openHistory() throws IOException {
+        return FileChannel.open(historyPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (history.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("History file ends inside a run");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public void close() throws IOException {
+        history.close();
+        slots.close();
+    }
+}
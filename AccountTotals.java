@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bank-wide figures kept current as accounts change, so reporting them never
+// walks every account: per account type the number of accounts and the money
+// they hold, and the number of locked accounts. Each figure is a LongAdder, so
+// concurrent operations on different accounts add to per-thread cells instead
+// of contending on one counter. Every AccountRegistry has one, and a
+// BankAccount reports each balance change and lock to the totals of the
+// registry it was added to.
+//
+// A change is counted just after the account itself changes, not atomically
+// with it, so figures read while operations run may be off by the operations
+// in flight, e.g. a transfer debited but not yet credited. reconcile() checks
+// the figures against a full scan and looks again before calling a difference
+// real.
+public class AccountTotals {
+    private static final int SAVINGS = 0;
+    private static final int CHECKING = 1;
+    private static final int SPLIT_THRESHOLD = 4096;
+    private static final int RECONCILE_ATTEMPTS = 3;
+
+    private final LongAdder[] accounts = {new LongAdder(), new LongAdder()};
+    private final LongAdder[] balances = {new LongAdder(), new LongAdder()};
+    private final LongAdder locked = new LongAdder();
+
+    // Same rule as interest posting: anything that is not Savings counts as Checking
+    private static int typeOf(String accountType) {
+        return "Savings".equalsIgnoreCase(accountType) ? SAVINGS : CHECKING;
+    }
+
+    void added(String accountType, long balance, boolean isLocked) {
+        int type = typeOf(accountType);
+        accounts[type].increment();
+        balances[type].add(balance);
+        if (isLocked) {
+            locked.increment();
+        }
+    }
+
+    void balanceChanged(String accountType, long delta) {
+        balances[typeOf(accountType)].add(delta);
+    }
+
+    void lockChanged(boolean isLocked) {
+        locked.add(isLocked ? 1 : -1);
+    }
+
+    // O(1) in the number of accounts
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for (int type = SAVINGS; type <= CHECKING; type++) {
+            snapshot.accounts[type] = accounts[type].sum();
+            snapshot.balances[type] = balances[type].sum();
+        }
+        snapshot.locked = locked.sum();
+        return snapshot;
+    }
+
+    // The same figures computed from scratch with a fork/join pass over the accounts
+    public static Snapshot scan(List<BankAccount> accounts) {
+        return ForkJoinPool.commonPool().invoke(new Scan(accounts, 0, accounts.size()));
+    }
+
+    // Compares the running figures with scan(accounts), looking again while they differ in case
+    // operations were in flight; the result is the last comparison
+    public Reconciliation reconcile(List<BankAccount> accounts) {
+        Reconciliation result;
+        int attempt = 0;
+        do {
+            Snapshot scanned = scan(accounts);
+            result = new Reconciliation(snapshot(), scanned);
+        } while (!result.matches() && ++attempt < RECONCILE_ATTEMPTS);
+        return result;
+    }
+
+    public static final class Snapshot {
+        private final long[] accounts = new long[2];
+        private final long[] balances = new long[2];
+        private long locked;
+
+        public long getSavingsAccounts() {
+            return accounts[SAVINGS];
+        }
+
+        public long getCheckingAccounts() {
+            return accounts[CHECKING];
+        }
+
+        public long getTotalAccounts() {
+            return accounts[SAVINGS] + accounts[CHECKING];
+        }
+
+        public long getSavingsBalance() {
+            return balances[SAVINGS];
+        }
+
+        public long getCheckingBalance() {
+            return balances[CHECKING];
+        }
+
+        public long getTotalBalance() {
+            return balances[SAVINGS] + balances[CHECKING];
+        }
+
+        public long getLockedAccounts() {
+            return locked;
+        }
+
+        private Snapshot add(Snapshot other) {
+            for (int type = SAVINGS; type <= CHECKING; type++) {
+                accounts[type] += other.accounts[type];
+                balances[type] += other.balances[type];
+            }
+            locked += other.locked;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot that = (Snapshot) other;
+            return Arrays.equals(accounts, that.accounts) && Arrays.equals(balances, that.balances)
+                    && locked == that.locked;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(accounts) + Arrays.hashCode(balances)) + Long.hashCode(locked);
+        }
+    }
+
+    public static final class Reconciliation {
+        private final Snapshot counted;
+        private final Snapshot scanned;
+
+        Reconciliation(Snapshot counted, Snapshot scanned) {
+            this.counted = counted;
+            this.scanned = scanned;
+        }
+
+        public Snapshot getCounted() {
+            return counted;
+        }
+
+        public Snapshot getScanned() {
+            return scanned;
+        }
+
+        public boolean matches() {
+            return counted.equals(scanned);
+        }
+    }
+
+    private static final class Scan extends RecursiveTask<Snapshot> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<BankAccount> accounts;
+        private final int from;
+        private final int to;
+
+        Scan(List<BankAccount> accounts, int from, int to) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Snapshot compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                Snapshot snapshot = new Snapshot();
+                for (int i = from; i < to; i++) {
+                    BankAccount account = accounts.get(i);
+                    int type = typeOf(account.getAccountType());
+                    snapshot.accounts[type]++;
+                    snapshot.balances[type] += account.getBalance();
+                    if (account.isLocked()) {
+                        snapshot.locked++;
+                    }
+                }
+                return snapshot;
+            }
+            int middle = (from + to) >>> 1;
+            Scan left = new Scan(accounts, from, middle);
+            left.fork();
+            Snapshot right = new Scan(accounts, middle, to).compute();
+            return left.join().add(right);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Counts failed attempts per key (an account number, a client address) over a
+// sliding time window. Each key keeps the times of its last 'limit' failures in
+// a small ring, so a key has reached the limit exactly when the oldest of them
+// is still inside the window. Keys whose failures have all aged out are
+// dropped every SWEEP_INTERVAL failures, which bounds the map by the number of
+// keys failing within one window. Safe for concurrent use; updates to one key
+// are serialized by the map, different keys never contend.
+final class AttemptLimiter {
+    private static final int SWEEP_INTERVAL = 4096;
+
+    private final int limit;
+    private final long windowNanos;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final AtomicInteger untilSweep = new AtomicInteger(SWEEP_INTERVAL);
+
+    private static final class Window {
+        final long[] failures; // System.nanoTime() of each failure, a ring
+        int next;
+        int count;
+
+        Window(int limit) {
+            failures = new long[limit];
+        }
+
+        synchronized void add(long now) {
+            failures[next] = now;
+            next = (next + 1) % failures.length;
+            count = Math.min(count + 1, failures.length);
+        }
+
+        synchronized int within(long now, long windowNanos) {
+            int recent = 0;
+            for (int i = 1; i <= count; i++) {
+                long at = failures[Math.floorMod(next - i, failures.length)];
+                if (now - at >= windowNanos) {
+                    break; // Older failures only get older
+                }
+                recent++;
+            }
+            return recent;
+        }
+    }
+
+    AttemptLimiter(int limit, long window, TimeUnit unit) {
+        this.limit = limit;
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    // Records a failure at 'now' (System.nanoTime()) and returns the failures within the window, itself included
+    int recordFailure(String key, long now) {
+        if (untilSweep.decrementAndGet() <= 0) {
+            untilSweep.set(SWEEP_INTERVAL);
+            sweep(now);
+        }
+        Window window = windows.compute(key, (k, w) -> {
+            Window updated = w != null ? w : new Window(limit);
+            updated.add(now);
+            return updated;
+        });
+        return window.within(now, windowNanos);
+    }
+
+    int failures(String key, long now) {
+        Window window = windows.get(key);
+        return window == null ? 0 : window.within(now, windowNanos);
+    }
+
+    boolean isBlocked(String key, long now) {
+        return failures(key, now) >= limit;
+    }
+
+    void reset(String key) {
+        windows.remove(key);
+    }
+
+    private void sweep(long now) {
+        for (String key : windows.keySet()) {
+            windows.computeIfPresent(key, (k, w) -> w.within(now, windowNanos) == 0 ? null : w);
+        }
+    }
+}
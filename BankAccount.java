@@ -1,168 +1,601 @@
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
 import java.io.Serializable;
 
 public class BankAccount implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    private final String accountHolderName;
-    private final String accountNumber;
-    private final String accountType;
-    private double balance;
-    private int pin;
-    private final Map<LocalDateTime, String> transactionHistory;
-    private double interestRate;
-    private boolean isLocked;
-    private int failedAttempts;
-    private static final int ADMIN_PIN = 9999;
+    // Not final: readObject assigns them when migrating snapshots written with double balances
+    private String accountHolderName;
+    private String accountNumber;
+    private String accountType;
+    private long balanceCents;
+    private transient PinHash pinHash; // Legacy snapshots hold a plain int 'pin', see readObject
+    private TransactionHistory history;
+    private int interestRateBps;
+    private volatile boolean isLocked;
+    private static final int MAX_PIN_ATTEMPTS = 3;
+    private static final int HISTORY_SLICE = 1024; // Entries read per lock hold when paging
+    private static final int MAX_SOURCE_ATTEMPTS = Integer.getInteger("bank.pin.sourceAttempts", 20);
+    private static final int MAX_ADMIN_PIN_ATTEMPTS = 5;
+    private static final long ATTEMPT_WINDOW_MINUTES = 15;
+    static final String CONSOLE_SOURCE = "console";
+    // Failed PIN attempts within the window: per account (reaching the limit locks it), per
+    // client source across accounts (reaching it refuses that source for a while) and for the admin PIN
+    private static final AttemptLimiter failedPins =
+            new AttemptLimiter(MAX_PIN_ATTEMPTS, ATTEMPT_WINDOW_MINUTES, TimeUnit.MINUTES);
+    private static final AttemptLimiter failedSources =
+            new AttemptLimiter(MAX_SOURCE_ATTEMPTS, ATTEMPT_WINDOW_MINUTES, TimeUnit.MINUTES);
+    private static final AttemptLimiter failedAdminPins =
+            new AttemptLimiter(MAX_ADMIN_PIN_ATTEMPTS, ATTEMPT_WINDOW_MINUTES, TimeUnit.MINUTES);
+    private static final String ADMIN = "admin";
+    private static final PinHash adminPin = PinHash.create(Integer.getInteger("bank.adminPin", 9999));
+    private static volatile TransactionLog journal;
+    private static volatile IdempotencyCache requests = new IdempotencyCache();
+    private static final HistoryCache historyCache =
+            new HistoryCache(Long.getLong("bank.historyCacheEntries", HistoryCache.DEFAULT_MAX_ENTRIES));
+
+    // Persistence bookkeeping, maintained by TransactionLog replay and AccountStore checkpoints
+    transient long lastLsn;            // last journal record applied to this account
+    transient int storeSlot = -1;      // slot in the account store, -1 until first checkpointed
+    transient int storedHistory;       // history entries already written to the store
+    // Stored history is read back only when the account's history is viewed. Until then
+    // 'history' holds just the entries from historyBase on (null if there are none).
+    transient int historyBase;         // leading history entries that are only in the store
+    transient long historyHead;        // store position of the account's newest history run
+    transient AccountStore historyStore;
+    private transient AccountTotals totals; // Of the registry holding the account; null until added to one
 
     public BankAccount(String accountHolderName, String accountNumber, String accountType,
-            double initialBalance, int pin, double interestRate) {
+            long initialBalanceCents, PinHash pin, int interestRateBps) {
+        this(accountHolderName, accountNumber, accountType, initialBalanceCents, pin, interestRateBps,
+                TransactionHistory.currentTimeNanos(), true);
+    }
+
+    // Replay constructor: rebuilds an account from its journaled open record
+    BankAccount(String accountHolderName, String accountNumber, String accountType,
+            long initialBalanceCents, PinHash pin, int interestRateBps, long openedAt, boolean journaled) {
         this.accountHolderName = accountHolderName;
         this.accountNumber = accountNumber;
         this.accountType = accountType;
-        this.balance = initialBalance;
-        this.pin = pin;
-        this.interestRate = interestRate;
-        this.transactionHistory = new HashMap<>();
+        this.balanceCents = initialBalanceCents;
+        this.pinHash = pin;
+        this.interestRateBps = interestRateBps;
+        this.history = new TransactionHistory();
         this.isLocked = false;
-        this.failedAttempts = 0;
-        recordTransaction("Account opened with initial balance: " + initialBalance);
+        history.append(openedAt, TransactionHistory.OPENED, initialBalanceCents, TransactionHistory.NO_COUNTERPARTY);
+        if (journaled && journal != null) {
+            lastLsn = journal.logOpen(this, initialBalanceCents, pin, openedAt);
+        }
     }
 
-    private void recordTransaction(String description) {
-        LocalDateTime now = LocalDateTime.now();
-        transactionHistory.put(now, description);
+    private BankAccount() {
     }
 
-    public void deposit(double amount) {
-        if (isLocked) {
-            System.out.println("Account is locked. Please contact support.");
-            return;
+    // Rebuilds an account from its store slot. With a historyStore the stored history is read
+    // from it on demand; without one the caller appends the stored history afterwards.
+    // failedAttempts comes from stores that kept a count; it seeds the account's attempt window.
+    static BankAccount restore(String accountHolderName, String accountNumber, String accountType,
+            long balanceCents, PinHash pin, int interestRateBps, boolean locked, int failedAttempts,
+            long lastLsn, int slot, int storedHistory, long historyHead, AccountStore historyStore) {
+        BankAccount account = new BankAccount();
+        account.accountHolderName = accountHolderName;
+        account.accountNumber = accountNumber;
+        account.accountType = accountType;
+        account.balanceCents = balanceCents;
+        account.pinHash = pin;
+        account.interestRateBps = interestRateBps;
+        account.isLocked = locked;
+        for (int i = 0; i < failedAttempts && !locked; i++) {
+            account.applyFailedPin();
+        }
+        account.lastLsn = lastLsn;
+        account.storeSlot = slot;
+        account.storedHistory = storedHistory;
+        account.historyHead = historyHead;
+        account.historyStore = historyStore;
+        if (historyStore != null) {
+            account.historyBase = storedHistory;
+        } else {
+            account.history = new TransactionHistory();
         }
+        return account;
+    }
 
-        if (amount > 0) {
-            balance += amount;
-            System.out.printf("Successfully deposited: $%.2f%n", amount);
-            recordTransaction("Deposit: +$" + amount);
+    // Older snapshots stored balance and interestRate as doubles and history as a Map of descriptions
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        accountHolderName = (String) fields.get("accountHolderName", null);
+        accountNumber = (String) fields.get("accountNumber", null);
+        accountType = (String) fields.get("accountType", null);
+        pinHash = PinHash.legacy(fields.get("pin", 0));
+        isLocked = fields.get("isLocked", false);
+        for (int i = fields.get("failedAttempts", 0); i > 0 && !isLocked; i--) {
+            applyFailedPin();
+        }
+        if (fields.defaulted("history")) {
+            @SuppressWarnings("unchecked")
+            Map<LocalDateTime, String> legacy = (Map<LocalDateTime, String>) fields.get("transactionHistory", null);
+            history = TransactionHistory.fromLegacy(legacy);
         } else {
-            System.out.println("Deposit amount must be greater than zero.");
+            history = (TransactionHistory) fields.get("history", null);
         }
+        if (fields.defaulted("balanceCents")) {
+            balanceCents = Money.fromDouble(fields.get("balance", 0.0));
+            interestRateBps = Money.rateFromPercent(fields.get("interestRate", 0.0));
+        } else {
+            balanceCents = fields.get("balanceCents", 0L);
+            interestRateBps = fields.get("interestRateBps", 0);
+        }
+        storeSlot = -1;
     }
 
-    public void withdraw(double amount) {
-        if (isLocked) {
-            System.out.println("Account is locked. Please contact support.");
-            return;
+    // Every successful mutation is appended to this log so it can be replayed after a restart
+    static void setJournal(TransactionLog log) {
+        journal = log;
+    }
+
+    // Keys of recent keyed operations; replaced at startup by one restored from disk
+    static void setRequestCache(IdempotencyCache cache) {
+        requests = cache;
+    }
+
+    // Operations validate, apply and journal a change and report the outcome;
+    // they never print, so BankApp decides how (and whether) to render it
+    public TransactionResult deposit(long amount) {
+        return deposit(amount, null);
+    }
+
+    public TransactionResult withdraw(long amount) {
+        return withdraw(amount, null);
+    }
+
+    public TransactionResult transfer(BankAccount recipient, long amount) {
+        return transfer(recipient, amount, null);
+    }
+
+    // With a requestKey (up to IdempotencyCache.MAX_KEY_LENGTH characters), repeating a
+    // request that already succeeded returns DUPLICATE and changes nothing, so callers
+    // can retry and pipeline freely; reusing the key for a different request is KEY_REUSED
+    public TransactionResult deposit(long amount, String requestKey) {
+        long started = Metrics.sample();
+        return Metrics.record(Metrics.DEPOSIT, started, attemptDeposit(amount, requestKey));
+    }
+
+    public TransactionResult withdraw(long amount, String requestKey) {
+        long started = Metrics.sample();
+        return Metrics.record(Metrics.WITHDRAW, started, attemptWithdrawal(amount, requestKey));
+    }
+
+    public TransactionResult transfer(BankAccount recipient, long amount, String requestKey) {
+        long started = Metrics.sample();
+        return Metrics.record(Metrics.TRANSFER, started, attemptTransfer(recipient, amount, requestKey));
+    }
+
+    private TransactionResult attemptDeposit(long amount, String requestKey) {
+        String requestId = requestKey == null ? null : IdempotencyCache.requestId(accountNumber, requestKey);
+        long fingerprint = requestId == null ? 0 : IdempotencyCache.fingerprint(
+                TransactionHistory.DEPOSIT, amount, TransactionHistory.NO_COUNTERPARTY);
+        AccountLocks.lock(this);
+        try {
+            TransactionResult earlier = requestId == null ? null : requests.check(requestId, fingerprint,
+                    TransactionHistory.currentTimeNanos());
+            if (earlier != null) {
+                return earlier;
+            }
+            if (isLocked) {
+                return TransactionResult.ACCOUNT_LOCKED;
+            }
+            if (amount <= 0) {
+                return TransactionResult.INVALID_AMOUNT;
+            }
+            long now = TransactionHistory.currentTimeNanos();
+            applyDeposit(amount, now);
+            if (journal != null) {
+                lastLsn = journal.logDeposit(this, amount, now, requestKey);
+            }
+            if (requestId != null) {
+                requests.remember(requestId, fingerprint, now, lastLsn);
+            }
+            return TransactionResult.SUCCESS;
+        } finally {
+            AccountLocks.unlock(this);
         }
+    }
 
-        if (amount > 0) {
-            if (amount <= balance) {
-                balance -= amount;
-                System.out.printf("Successfully withdrew: $%.2f%n", amount);
-                recordTransaction("Withdrawal: -$" + amount);
-            } else {
-                System.out.println("Insufficient balance for this withdrawal.");
+    private TransactionResult attemptWithdrawal(long amount, String requestKey) {
+        String requestId = requestKey == null ? null : IdempotencyCache.requestId(accountNumber, requestKey);
+        long fingerprint = requestId == null ? 0 : IdempotencyCache.fingerprint(
+                TransactionHistory.WITHDRAWAL, amount, TransactionHistory.NO_COUNTERPARTY);
+        AccountLocks.lock(this);
+        try {
+            TransactionResult earlier = requestId == null ? null : requests.check(requestId, fingerprint,
+                    TransactionHistory.currentTimeNanos());
+            if (earlier != null) {
+                return earlier;
             }
-        } else {
-            System.out.println("Withdraw amount must be greater than zero.");
+            if (isLocked) {
+                return TransactionResult.ACCOUNT_LOCKED;
+            }
+            if (amount <= 0) {
+                return TransactionResult.INVALID_AMOUNT;
+            }
+            if (amount > balanceCents) {
+                return TransactionResult.INSUFFICIENT_FUNDS;
+            }
+            long now = TransactionHistory.currentTimeNanos();
+            applyWithdrawal(amount, now);
+            if (journal != null) {
+                lastLsn = journal.logWithdrawal(this, amount, now, requestKey);
+            }
+            if (requestId != null) {
+                requests.remember(requestId, fingerprint, now, lastLsn);
+            }
+            return TransactionResult.SUCCESS;
+        } finally {
+            AccountLocks.unlock(this);
         }
     }
 
-    public void transfer(BankAccount recipient, double amount) {
-        if (isLocked) {
-            System.out.println("Account is locked. Please contact support.");
-            return;
+    private TransactionResult attemptTransfer(BankAccount recipient, long amount, String requestKey) {
+        if (recipient == this) {
+            return TransactionResult.SAME_ACCOUNT;
         }
 
-        if (amount > 0) {
-            if (amount <= balance) {
-                this.balance -= amount;
-                recipient.balance += amount;
-                System.out.printf("Transferred $%.2f to %s%n", amount, recipient.getAccountHolderName());
-                recordTransaction("Transfer to " + recipient.getAccountNumber() + ": -$" + amount);
-                recipient.recordTransaction("Transfer from " + this.accountNumber + ": +$" + amount);
-            } else {
-                System.out.println("Insufficient balance for this transfer.");
+        String requestId = requestKey == null ? null : IdempotencyCache.requestId(accountNumber, requestKey);
+        long fingerprint = requestId == null ? 0 : IdempotencyCache.fingerprint(
+                TransactionHistory.TRANSFER_OUT, amount, AccountRegistry.toKey(recipient.accountNumber));
+        AccountLocks.lock(this, recipient);
+        try {
+            TransactionResult earlier = requestId == null ? null : requests.check(requestId, fingerprint,
+                    TransactionHistory.currentTimeNanos());
+            if (earlier != null) {
+                return earlier;
             }
-        } else {
-            System.out.println("Transfer amount must be greater than zero.");
+            if (isLocked) {
+                return TransactionResult.ACCOUNT_LOCKED;
+            }
+            if (amount <= 0) {
+                return TransactionResult.INVALID_AMOUNT;
+            }
+            if (amount > balanceCents) {
+                return TransactionResult.INSUFFICIENT_FUNDS;
+            }
+            long now = TransactionHistory.currentTimeNanos();
+            applyTransfer(recipient, amount, now);
+            if (journal != null) {
+                lastLsn = journal.logTransfer(this, recipient, amount, now, requestKey);
+                recipient.lastLsn = lastLsn;
+            }
+            if (requestId != null) {
+                requests.remember(requestId, fingerprint, now, lastLsn);
+            }
+            return TransactionResult.SUCCESS;
+        } finally {
+            AccountLocks.unlock(this, recipient);
         }
     }
 
-    public void checkBalance() {
-        System.out.printf("Current balance: $%.2f%n", balance);
+    // Balance in cents
+    public long getBalance() {
+        AccountLocks.lock(this);
+        try {
+            return balanceCents;
+        } finally {
+            AccountLocks.unlock(this);
+        }
     }
 
-    public void showTransactionHistory() {
-        System.out.println("\n--- Transaction History ---");
-        if (transactionHistory.isEmpty()) {
-            System.out.println("No transactions yet.");
-            return;
+    // Formatted history lines, oldest first, captured under the account's lock
+    public List<String> getTransactionHistory() {
+        AccountLocks.lock(this);
+        try {
+            // Entries are kept in time order, so no sorting is needed
+            TransactionHistory history = viewHistory();
+            List<String> lines = new ArrayList<>(history.size());
+            for (int i = 0; i < history.size(); i++) {
+                lines.add(history.format(i));
+            }
+            return lines;
+        } finally {
+            AccountLocks.unlock(this);
         }
-        
-        transactionHistory.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .forEach(entry -> {
-                    String formattedDate = entry.getKey().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-                    System.out.println(formattedDate + " - " + entry.getValue());
-                });
     }
 
-    public void calculateInterest(int days) {
-        if (days > 0) {
-            double interest = balance * (interestRate / 100) * (days / 365.0);
-            System.out.printf("Estimated interest for %d days: $%.2f%n", days, interest);
-        } else {
-            System.out.println("Days must be greater than zero.");
+    // Newest-first page of the entries matching query; see HistoryPage for cursors. Walks back
+    // a slice at a time, so a page never loads the stored history as a whole.
+    public HistoryPage getHistoryPage(HistoryQuery query, int cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than zero");
+        }
+        int[] range = historyRange(query);
+        int low = range[0];
+        int next = Math.min(cursor, range[1]);
+        List<String> entries = new ArrayList<>(Math.min(limit, 64));
+        while (next > low) {
+            int from = Math.max(low, next - HISTORY_SLICE);
+            int to = next;
+            next = readHistorySlice(from, to, (history, base) -> {
+                for (int i = to - 1; i >= from; i--) {
+                    if (query.matches(history.typeAt(i - base))) {
+                        if (entries.size() == limit) {
+                            return i + 1; // An older match remains: the next page starts there
+                        }
+                        entries.add(history.format(i - base));
+                    }
+                }
+                return from;
+            });
+            if (next > from) {
+                return new HistoryPage(entries, next);
+            }
         }
+        return new HistoryPage(entries, HistoryPage.END);
     }
 
-    public boolean verifyPin(int enteredPin) {
-        if (isLocked) {
-            System.out.println("Account is locked. Please contact support.");
-            return false;
+    // Indexes [first, end) of the entries within query's dates
+    int[] historyRange(HistoryQuery query) {
+        AccountLocks.lock(this);
+        try {
+            return new int[] {historyLowerBound(query.getFromNanos()), historyLowerBound(query.getToNanos())};
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the history of account " + accountNumber, e);
+        } finally {
+            AccountLocks.unlock(this);
         }
-        
-        if (enteredPin == pin) {
-            failedAttempts = 0;
-            return true;
-        } else {
-            failedAttempts++;
-            if (failedAttempts >= 3) {
-                isLocked = true;
-                System.out.println("Too many failed attempts. Account locked.");
+    }
+
+    // Runs reader under the account's lock on a history holding entries [from, to) (and possibly
+    // more), with entry i at index i - base. Entries only in the store are read for the slice
+    // alone, leaving the account's history unloaded. History is append-only, so indexes stay
+    // valid between slices.
+    <T> T readHistorySlice(int from, int to, BiFunction<TransactionHistory, Integer, T> reader) {
+        AccountLocks.lock(this);
+        try {
+            if (from >= historyBase) {
+                return reader.apply(history == null ? new TransactionHistory() : history, historyBase);
+            }
+            TransactionHistory slice = new TransactionHistory();
+            historyStore.readHistory(AccountRegistry.toKey(accountNumber), historyHead, historyBase, from,
+                    Math.min(to, historyBase), slice);
+            if (to > historyBase) {
+                slice.appendRange(history, 0, to - historyBase);
+            }
+            return reader.apply(slice, from);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the history of account " + accountNumber, e);
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    // Index of the first entry at or after epochNanos; caller holds the account's lock
+    private int historyLowerBound(long epochNanos) throws IOException {
+        if (history != null && history.size() > 0 && (historyBase == 0 || history.timeAt(0) < epochNanos)) {
+            return historyBase + history.lowerBound(epochNanos);
+        } else if (historyBase == 0) {
+            return 0;
+        }
+        return historyStore.historyLowerBound(AccountRegistry.toKey(accountNumber), historyHead, historyBase,
+                epochNanos);
+    }
+
+    // Estimated simple interest in cents over the given number of days
+    public long calculateInterest(int days) {
+        if (days <= 0) {
+            throw new IllegalArgumentException("Days must be greater than zero");
+        }
+        AccountLocks.lock(this);
+        try {
+            return Money.interest(balanceCents, interestRateBps, days);
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    // Credits interest for the given days at the account's rate; returns the amount credited
+    long postInterest(int days, long at) {
+        AccountLocks.lock(this);
+        try {
+            long interest = Money.interest(balanceCents, interestRateBps, days);
+            if (interest <= 0) {
+                return 0;
+            }
+            applyInterest(interest, at);
+            if (journal != null) {
+                lastLsn = journal.logInterest(this, interest, at);
+            }
+            return interest;
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    // INCORRECT_PIN leaves getRemainingAttempts() tries; the last one locks the account and returns
+    // LOCKED_OUT. Blocks until the PIN has been checked on the PinVerifier pool.
+    public TransactionResult verifyPin(int enteredPin) {
+        return verifyPin(enteredPin, CONSOLE_SOURCE);
+    }
+
+    public TransactionResult verifyPin(int enteredPin, String source) {
+        return verifyPinAsync(enteredPin, source).join();
+    }
+
+    // source names where the attempt came from, e.g. a client address; once it has failed
+    // too often against any accounts it gets THROTTLED without the PIN being checked at all.
+    // Completes with BUSY if the verifier is overloaded.
+    public CompletableFuture<TransactionResult> verifyPinAsync(int enteredPin, String source) {
+        long started = Metrics.sample();
+        boolean locked;
+        PinHash stored;
+        AccountLocks.lock(this);
+        try {
+            locked = isLocked;
+            stored = pinHash;
+        } finally {
+            AccountLocks.unlock(this);
+        }
+        if (locked) {
+            return CompletableFuture.completedFuture(
+                    Metrics.record(Metrics.VERIFY_PIN, started, TransactionResult.ACCOUNT_LOCKED));
+        }
+        if (failedSources.isBlocked(source, System.nanoTime())) {
+            return CompletableFuture.completedFuture(
+                    Metrics.record(Metrics.VERIFY_PIN, started, TransactionResult.THROTTLED));
+        }
+        return PinVerifier.matches(stored, enteredPin).handle((matched, error) -> Metrics.record(
+                Metrics.VERIFY_PIN, started, error != null ? TransactionResult.BUSY
+                        : finishPinCheck(stored, enteredPin, matched, source)));
+    }
+
+    private TransactionResult finishPinCheck(PinHash checked, int enteredPin, boolean matched, String source) {
+        long now = System.nanoTime();
+        AccountLocks.lock(this);
+        try {
+            if (isLocked) {
+                return TransactionResult.ACCOUNT_LOCKED;
+            }
+            if (matched) {
+                failedPins.reset(accountNumber);
             } else {
-                System.out.println("Incorrect PIN. " + (3 - failedAttempts) + " attempts remaining.");
+                failedSources.recordFailure(source, now);
+                if (failedPins.recordFailure(accountNumber, now) < MAX_PIN_ATTEMPTS) {
+                    return TransactionResult.INCORRECT_PIN;
+                }
+                applyLock();
+                if (journal != null) {
+                    lastLsn = journal.logLock(this);
+                }
+                return TransactionResult.LOCKED_OUT;
             }
+        } finally {
+            AccountLocks.unlock(this);
+        }
+        if (!checked.isCurrent()) {
+            // Legacy or cheaper than the current cost: store it hashed afresh now that the PIN is known
+            PinVerifier.hash(enteredPin).thenAccept(rehashed -> replacePinHash(checked, rehashed));
+        }
+        return TransactionResult.SUCCESS;
+    }
+
+    // Hashes a PIN still held in plain form; returns false if there was none. Runs the hash on
+    // the calling thread, for the background upgrade of accounts loaded from older files.
+    boolean upgradeLegacyPin() {
+        PinHash stored;
+        AccountLocks.lock(this);
+        try {
+            stored = pinHash;
+        } finally {
+            AccountLocks.unlock(this);
+        }
+        if (!stored.isLegacy()) {
             return false;
         }
+        replacePinHash(stored, PinHash.create(stored.legacyPin()));
+        return true;
     }
 
-    public void unlockAccount(int adminPin) {
-        if (adminPin == ADMIN_PIN) {
-            isLocked = false;
-            failedAttempts = 0;
-            System.out.println("Account unlocked successfully.");
-        } else {
-            System.out.println("Invalid admin PIN.");
+    // Unless the PIN changed in the meantime
+    private void replacePinHash(PinHash stored, PinHash rehashed) {
+        AccountLocks.lock(this);
+        try {
+            if (pinHash != stored) {
+                return;
+            }
+            applyPinRehash(rehashed);
+            if (journal != null) {
+                lastLsn = journal.logPinRehash(this, rehashed);
+            }
+        } finally {
+            AccountLocks.unlock(this);
         }
     }
-    
-    public void changePin(int oldPin, int newPin) {
-        if (isLocked) {
-            System.out.println("Account is locked. Please contact support.");
-            return;
+
+    public int getRemainingAttempts() {
+        return Math.max(0, MAX_PIN_ATTEMPTS - failedPins.failures(accountNumber, System.nanoTime()));
+    }
+
+    // SUCCESS, INVALID_ADMIN_PIN, THROTTLED after repeated failures or BUSY
+    public static TransactionResult verifyAdminPin(int enteredPin) {
+        if (failedAdminPins.isBlocked(ADMIN, System.nanoTime())) {
+            return TransactionResult.THROTTLED;
         }
-        
-        if (oldPin == pin) {
-            pin = newPin;
-            System.out.println("PIN changed successfully.");
-            recordTransaction("PIN changed");
-        } else {
-            System.out.println("Incorrect current PIN.");
+        try {
+            if (PinVerifier.matches(adminPin, enteredPin).join()) {
+                return TransactionResult.SUCCESS;
+            }
+        } catch (CompletionException e) {
+            return TransactionResult.BUSY;
+        }
+        failedAdminPins.recordFailure(ADMIN, System.nanoTime());
+        return TransactionResult.INVALID_ADMIN_PIN;
+    }
+
+    public TransactionResult unlockAccount(int adminPin) {
+        TransactionResult admin = verifyAdminPin(adminPin);
+        if (admin != TransactionResult.SUCCESS) {
+            return admin;
+        }
+        AccountLocks.lock(this);
+        try {
+            applyUnlock();
+            if (journal != null) {
+                lastLsn = journal.logUnlock(this);
+            }
+            return TransactionResult.SUCCESS;
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    // Checks the old PIN and hashes the new one outside the account's lock; starts over if the
+    // stored hash was replaced meanwhile (e.g. rehashed after a login)
+    public TransactionResult changePin(int oldPin, int newPin) {
+        while (true) {
+            PinHash stored;
+            AccountLocks.lock(this);
+            try {
+                if (isLocked) {
+                    return TransactionResult.ACCOUNT_LOCKED;
+                }
+                stored = pinHash;
+            } finally {
+                AccountLocks.unlock(this);
+            }
+            PinHash replacement;
+            try {
+                if (!PinVerifier.matches(stored, oldPin).join()) {
+                    return TransactionResult.INCORRECT_PIN;
+                }
+                replacement = PinVerifier.hash(newPin).join();
+            } catch (CompletionException e) {
+                return TransactionResult.BUSY;
+            }
+            AccountLocks.lock(this);
+            try {
+                if (isLocked) {
+                    return TransactionResult.ACCOUNT_LOCKED;
+                }
+                if (pinHash == stored) {
+                    long now = TransactionHistory.currentTimeNanos();
+                    applyPinChange(replacement, now);
+                    if (journal != null) {
+                        lastLsn = journal.logPinChange(this, replacement, now);
+                    }
+                    return TransactionResult.SUCCESS;
+                }
+            } finally {
+                AccountLocks.unlock(this);
+            }
         }
     }
 
@@ -181,18 +614,219 @@ public class BankAccount implements Serializable {
     public boolean isLocked() {
         return isLocked;
     }
+
+    // Caller holds the account's lock
+    PinHash getPinHash() {
+        return pinHash;
+    }
+
+    // The entries from historyBase on, or null if there are none; caller holds the account's lock
+    TransactionHistory residentHistory() {
+        return history;
+    }
+
+    // Caller holds the account's lock
+    int historySize() {
+        return historyBase + (history == null ? 0 : history.size());
+    }
+
+    // Full history for reading, loaded from the store if needed; caller holds the account's lock
+    TransactionHistory viewHistory() {
+        if (historyBase > 0) {
+            loadStoredHistory();
+        } else if (history == null) {
+            history = new TransactionHistory();
+        }
+        historyCache.touch(this, history.size());
+        return history;
+    }
+
+    private void loadStoredHistory() {
+        long started = Metrics.start();
+        try {
+            TransactionHistory full = historyStore.readHistory(AccountRegistry.toKey(accountNumber), historyHead,
+                    historyBase);
+            if (history != null) {
+                full.appendFrom(history, 0);
+            }
+            history = full;
+            historyBase = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the history of account " + accountNumber, e);
+        }
+        Metrics.record(Metrics.HISTORY_LOAD, started);
+    }
+
+    // Drops the in-memory copy of entries the store already holds, keeping any it does not;
+    // they are read back the next time the history is viewed. Caller holds the account's lock.
+    void releaseStoredHistory() {
+        int stored = storedHistory - historyBase;
+        if (historyStore == null || stored <= 0) {
+            return;
+        }
+        TransactionHistory unsaved = null;
+        if (history.size() > stored) {
+            unsaved = new TransactionHistory();
+            unsaved.appendFrom(history, stored);
+        }
+        history = unsaved;
+        historyBase = storedHistory;
+    }
+
+    // Reads the whole history into memory and forgets where it was stored, so the next
+    // checkpoint into a different store writes the account out in full
+    void detachFromStore() {
+        AccountLocks.lock(this);
+        try {
+            if (historyBase > 0) {
+                loadStoredHistory();
+            }
+            storeSlot = -1;
+            storedHistory = 0;
+            historyHead = AccountStore.NO_RUN;
+            historyStore = null;
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    // After a checkpoint: releases the stored history of accounts that were not viewed recently
+    static void releaseUnviewedHistories(List<BankAccount> accounts) {
+        for (BankAccount account : accounts) {
+            AccountLocks.lock(account);
+            try {
+                if (!historyCache.contains(account)) {
+                    account.releaseStoredHistory();
+                }
+            } finally {
+                AccountLocks.unlock(account);
+            }
+        }
+    }
+
+    private void appendHistory(long at, byte type, long amount, long counterparty) {
+        if (history == null) {
+            history = new TransactionHistory();
+        }
+        history.append(at, type, amount, counterparty);
+    }
     
-    public double getInterestRate() {
-        return interestRate;
+    // Interest rate in basis points (hundredths of a percent)
+    public int getInterestRate() {
+        return interestRateBps;
     }
     
-    public void setInterestRate(double interestRate, int adminPin) {
-        if (adminPin == ADMIN_PIN) {
-            this.interestRate = interestRate;
-            System.out.println("Interest rate changed to " + interestRate + "%");
-            recordTransaction("Interest rate changed to " + interestRate + "%");
-        } else {
-            System.out.println("Invalid admin PIN.");
+    public TransactionResult setInterestRate(int interestRate, int adminPin) {
+        TransactionResult admin = verifyAdminPin(adminPin);
+        if (admin != TransactionResult.SUCCESS) {
+            return admin;
         }
+        AccountLocks.lock(this);
+        try {
+            long now = TransactionHistory.currentTimeNanos();
+            applyInterestRate(interestRate, now);
+            if (journal != null) {
+                lastLsn = journal.logInterestRate(this, interestRate, now);
+            }
+            return TransactionResult.SUCCESS;
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    // State transitions shared by the interactive operations and journal replay.
+    // They assume the operation has already been validated, never print, and are
+    // called with the account's lock held (or single-threaded during replay).
+    void applyDeposit(long amount, long at) {
+        changeBalance(Math.addExact(balanceCents, amount));
+        appendHistory(at, TransactionHistory.DEPOSIT, amount, TransactionHistory.NO_COUNTERPARTY);
+    }
+
+    void applyWithdrawal(long amount, long at) {
+        changeBalance(balanceCents - amount);
+        appendHistory(at, TransactionHistory.WITHDRAWAL, amount, TransactionHistory.NO_COUNTERPARTY);
+    }
+
+    void applyTransfer(BankAccount recipient, long amount, long at) {
+        Math.addExact(recipient.balanceCents, amount); // Fail before either side changes
+        applyTransferOut(recipient, amount, at);
+        recipient.applyTransferIn(this, amount, at);
+    }
+
+    void applyTransferOut(BankAccount recipient, long amount, long at) {
+        changeBalance(balanceCents - amount);
+        appendHistory(at, TransactionHistory.TRANSFER_OUT, amount, AccountRegistry.toKey(recipient.accountNumber));
+    }
+
+    void applyTransferIn(BankAccount sender, long amount, long at) {
+        changeBalance(Math.addExact(balanceCents, amount));
+        appendHistory(at, TransactionHistory.TRANSFER_IN, amount, AccountRegistry.toKey(sender.accountNumber));
+    }
+
+    void applyInterest(long amount, long at) {
+        changeBalance(Math.addExact(balanceCents, amount));
+        appendHistory(at, TransactionHistory.INTEREST, amount, TransactionHistory.NO_COUNTERPARTY);
+    }
+
+    void applyPinChange(PinHash newPin, long at) {
+        pinHash = newPin;
+        appendHistory(at, TransactionHistory.PIN_CHANGED, 0, TransactionHistory.NO_COUNTERPARTY);
+    }
+
+    // The same PIN hashed again (a legacy PIN or an outdated cost); not a change the holder made
+    void applyPinRehash(PinHash rehashed) {
+        pinHash = rehashed;
+    }
+
+    void applyLock() {
+        changeLocked(true);
+    }
+
+    void applyUnlock() {
+        changeLocked(false);
+        failedPins.reset(accountNumber);
+    }
+
+    // Journals and stores from before the attempt limiter logged every failure and reset
+    void applyFailedPin() {
+        if (failedPins.recordFailure(accountNumber, System.nanoTime()) >= MAX_PIN_ATTEMPTS) {
+            changeLocked(true);
+        }
+    }
+
+    void applyPinReset() {
+        failedPins.reset(accountNumber);
+    }
+
+    private void changeBalance(long newBalance) {
+        if (totals != null) {
+            totals.balanceChanged(accountType, newBalance - balanceCents);
+        }
+        balanceCents = newBalance;
+    }
+
+    private void changeLocked(boolean locked) {
+        if (isLocked != locked) {
+            isLocked = locked;
+            if (totals != null) {
+                totals.lockChanged(locked);
+            }
+        }
+    }
+
+    // Called by the registry the account is added to; later changes are counted in its totals
+    void countIn(AccountTotals registryTotals) {
+        AccountLocks.lock(this);
+        try {
+            totals = registryTotals;
+            registryTotals.added(accountType, balanceCents, isLocked);
+        } finally {
+            AccountLocks.unlock(this);
+        }
+    }
+
+    void applyInterestRate(int interestRate, long at) {
+        this.interestRateBps = interestRate;
+        appendHistory(at, TransactionHistory.RATE_CHANGED, interestRate, TransactionHistory.NO_COUNTERPARTY);
     }
-}
\ No newline at end of file
+}
@@ -1,24 +1,83 @@
 import java.util.Scanner;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BankApp {
     private static final Scanner scanner = new Scanner(System.in);
     private static final String[] THEMES = {"Classic", "Dark", "Light", "Professional"};
     private static String currentTheme = "Classic";
-    private static List<BankAccount> accounts = new ArrayList<>();
-    private static final int ADMIN_PIN = 9999;
+    private static AccountRegistry accounts = new AccountRegistry();
     private static final String DATA_FILE = "bank_data.dat";
+    private static final String CONVERTED_FILE = "bank_data.bin"; // DATA_FILE in the AccountCodec format
+    private static final String STORE_FILE = "bank_accounts.db";
+    private static final String HISTORY_FILE = "bank_history.db";
+    private static final String MIGRATION_MARKER = "bank_accounts.migrating";
+    private static final String LOG_FILE = "bank_data.wal";
+    private static final String REQUESTS_FILE = "bank_requests.db";
+    private static final String NUMBERS_FILE = "bank_numbers.db";
+    private static final String ORDERS_FILE = "bank_orders.db";
+    private static final long CHECKPOINT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+    private static final int DEFAULT_PORT = 8080;
+    private static final int MAX_INTEREST_RATE = 10_000; // Basis points, i.e. 100.00%
+    private static final String METRICS_FILE = "bank_metrics.txt";
+    private static final long METRICS_INTERVAL_SECONDS = 60;
+    private static final int PIN_UPGRADE_BATCH = 1000;
+    private static final long RECONCILE_INTERVAL_MINUTES = Long.getLong("bank.reconcileMinutes", 60);
+    private static final Object OPEN_LOCK = new Object();
+    private static ShardedAccountStore store;
+    private static TransactionLog journal;
+    private static final IdempotencyCache requests = new IdempotencyCache();
+    private static AccountNumberAllocator numbers = new AccountNumberAllocator(); // Persisted once loaded
+    private static StandingOrderScheduler standingOrders;
+    private static final DateTimeFormatter ORDER_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final ExecutorService checkpointer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "checkpoint");
+        thread.setDaemon(true); // Safe to abandon: the journal stays valid until a checkpoint completes
+        return thread;
+    });
+    private static final AtomicBoolean checkpointQueued = new AtomicBoolean();
 
     public static void main(String[] args) {
         System.out.println("\n=== ENHANCED BANKING APPLICATION ===");
         
+        if (args.length == 1 && args[0].equals("--convert")) {
+            convertSnapshot(); // Before loading, which would migrate the snapshot into the store
+            return;
+        }
+        
         // Load accounts from file at startup
         loadAccountsFromFile();
+        Metrics.publish(Paths.get(METRICS_FILE), METRICS_INTERVAL_SECONDS);
+        scheduleReconciliation();
+        
+        if (args.length == 2 && args[0].equals("--batch")) {
+            runBatch(args[1]);
+            return;
+        } else if (args.length == 2 && args[0].equals("--import")) {
+            runImport(args[1]);
+            return;
+        } else if (args.length >= 1 && args.length <= 2 && args[0].equals("--serve") && isPort(args)) {
+            serve(args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+            return;
+        } else if (args.length > 0) {
+            System.out.println("Usage: java BankApp [--batch <file.csv | -> | --import <file.csv | ->"
+                    + " | --serve [port] | --convert]");
+            return;
+        }
+        
+        standingOrders.start();
         
         // Add shutdown hook to save data when application closes
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -30,6 +89,7 @@ public class BankApp {
             System.out.println("\n1. Login to existing account");
             System.out.println("2. Create new account");
             System.out.println("3. Exit");
+            System.out.println("4. Admin tools");
             System.out.print("Select option: ");
             
             int mainChoice = getIntInput();
@@ -37,6 +97,7 @@ public class BankApp {
             switch (mainChoice) {
                 case 1:
                     BankAccount currentAccount = login();
+                    commitChanges(); // Save lockouts
                     if (currentAccount != null) {
                         bankingMenu(currentAccount);
                     }
@@ -44,7 +105,7 @@ public class BankApp {
                     
                 case 2:
                     createAccount();
-                    saveAccountsToFile(); // Save after creating account
+                    commitChanges(); // Save after creating account
                     break;
                     
                 case 3:
@@ -52,44 +113,307 @@ public class BankApp {
                     System.out.println("Exiting application. Goodbye!");
                     return;
                     
+                case 4:
+                    adminMenu();
+                    break;
+                    
                 default:
                     System.out.println("Invalid option. Please try again.");
             }
         }
     }
     
-    // Save accounts to file
-    private static void saveAccountsToFile() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            oos.writeObject(accounts);
+    // Apply a file of operations (or stdin for "-") without the menu, then checkpoint once
+    private static void runBatch(String fileName) {
+        BatchProcessor batch = new BatchProcessor(accounts, BankApp::commitChanges);
+        try (BufferedReader in = fileName.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in), 1 << 16)
+                : Files.newBufferedReader(Paths.get(fileName))) {
+            batch.run(in);
+        } catch (IOException e) {
+            System.out.println("Error reading batch file: " + e.getMessage());
+        }
+        saveAccountsToFile();
+    }
+    
+    // Create accounts from a CSV of customers, then persist them all with one checkpoint
+    private static void runImport(String fileName) {
+        AccountImporter importer = new AccountImporter(accounts, () -> generateAccountNumber(accounts),
+                journal::markDirty, BankApp::saveAccountsToFile);
+        try (BufferedReader in = fileName.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in), 1 << 16)
+                : Files.newBufferedReader(Paths.get(fileName))) {
+            importer.run(in);
+        } catch (IOException e) {
+            System.out.println("Error reading import file: " + e.getMessage());
+        }
+    }
+    
+    private static boolean isPort(String[] args) {
+        if (args.length == 1) {
+            return true;
+        }
+        try {
+            int port = Integer.parseInt(args[1]);
+            return port >= 0 && port <= 65535;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    // Serve the HTTP API until the process is stopped; the shutdown hook takes the final checkpoint
+    private static void serve(int port) {
+        try {
+            // Operations fail with a 500 response rather than be acknowledged without being durable
+            new BankServer(accounts, BankApp::commitDurably).start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                saveAccountsToFile();
+                System.out.println("Data saved successfully.");
+            }));
+            standingOrders.start();
+            System.out.println("Serving the banking API on http://localhost:" + port + "/ using "
+                    + BankServer.executorName());
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    // Make journaled operations durable; checkpoint into the store once the log grows large
+    private static void commitChanges() {
+        try {
+            commitDurably();
+        } catch (UncheckedIOException e) {
+            System.out.println("Error saving accounts data: " + e.getCause().getMessage());
+        }
+    }
+    
+    // As commitChanges, for callers that must not report an operation done unless it is durable
+    private static void commitDurably() {
+        try {
+            journal.sync();
+            if (journal.size() > CHECKPOINT_THRESHOLD_BYTES) {
+                requestCheckpoint();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Runs the checkpoint on a background thread so the operation that crossed the threshold
+    // does not wait for it; operations carry on meanwhile and stay in the compacted journal
+    private static void requestCheckpoint() {
+        if (checkpointQueued.compareAndSet(false, true)) {
+            checkpointer.execute(() -> {
+                checkpointQueued.set(false);
+                saveAccountsToFile();
+            });
+        }
+    }
+    
+    // Checkpoint: write the slots of accounts changed since the last checkpoint, then drop the
+    // journal records it covers
+    private static synchronized void saveAccountsToFile() {
+        if (journal == null) {
+            return;
+        }
+        long started = Metrics.start();
+        try {
+            journal.sync();
+            long lsn = journal.lastLsn(); // Read before draining so the store never claims unflushed changes
+            requests.save(Paths.get(REQUESTS_FILE), lsn); // Before the journal records holding the keys are dropped
+            List<BankAccount> changed = journal.drainDirty();
+            try {
+                store.checkpoint(changed, lsn);
+            } catch (IOException e) {
+                changed.forEach(journal::markDirty); // Retried by the next checkpoint
+                throw e;
+            }
+            BankAccount.releaseUnviewedHistories(changed);
+            finishMigration();
+            journal.reset(lsn);
             System.out.println("Accounts data saved successfully.");
         } catch (IOException e) {
             System.out.println("Error saving accounts data: " + e.getMessage());
         }
+        Metrics.record(Metrics.SAVE, started);
     }
     
-    // Load accounts from file
-    @SuppressWarnings("unchecked")
+    // Map the account store shards, then replay the journal written after the oldest shard checkpoint.
+    // A store that does not exist yet is seeded from a single-file store or a converted or legacy snapshot.
     private static void loadAccountsFromFile() {
-        if (!Files.exists(Paths.get(DATA_FILE))) {
-            System.out.println("No existing data file found. Starting with empty accounts.");
-            return;
+        long started = Metrics.start();
+        try {
+            if (Files.exists(Paths.get(MIGRATION_MARKER))) {
+                ShardedAccountStore.deleteFiles(STORE_FILE, HISTORY_FILE); // Start the migration over
+            }
+            store = new ShardedAccountStore(STORE_FILE, HISTORY_FILE);
+            journal = new TransactionLog(LOG_FILE);
+            numbers = new AccountNumberAllocator(Paths.get(NUMBERS_FILE));
+            long checkpointLsn = store.checkpointLsn();
+            boolean migrated = false;
+            if (!store.isEmpty()) {
+                accounts = store.load();
+                finishMigration(); // The unsharded store may outlive a completed migration
+                System.out.println("Accounts data loaded successfully. Total accounts: " + accounts.size());
+            } else if (Files.exists(Paths.get(STORE_FILE)) || Files.exists(Paths.get(CONVERTED_FILE))
+                    || Files.exists(Paths.get(DATA_FILE))) {
+                Files.write(Paths.get(MIGRATION_MARKER), new byte[0]);
+                if (Files.exists(Paths.get(STORE_FILE))) {
+                    checkpointLsn = loadUnshardedStore();
+                } else {
+                    String source = Files.exists(Paths.get(CONVERTED_FILE)) ? CONVERTED_FILE : DATA_FILE;
+                    checkpointLsn = source.equals(CONVERTED_FILE) ? loadConvertedSnapshot() : loadLegacySnapshot();
+                    System.out.println("Migrating " + source + " to the account store.");
+                }
+                for (BankAccount account : accounts.asList()) {
+                    journal.markDirty(account);
+                }
+                migrated = true;
+            } else {
+                System.out.println("No existing data file found. Starting with empty accounts.");
+            }
+            
+            boolean legacyLog = journal.isLegacyFormat();
+            requests.load(Paths.get(REQUESTS_FILE));
+            int replayed = journal.replay(checkpointLsn, accounts, requests);
+            journal.continueAfter(store.newestCheckpointLsn());
+            BankAccount.setJournal(journal);
+            BankAccount.setRequestCache(requests);
+            if (replayed > 0) {
+                System.out.println("Recovered " + replayed + " journaled operations.");
+            }
+            if (replayed > 0 || legacyLog || migrated) {
+                saveAccountsToFile(); // Fold the recovered operations into the store
+            }
+            standingOrders = new StandingOrderScheduler(accounts, Paths.get(ORDERS_FILE), BankApp::commitDurably);
+            Metrics.record(Metrics.LOAD, started);
+            upgradeLegacyPins();
+        } catch (IOException e) {
+            System.out.println("Error opening account store: " + e.getMessage());
+            System.exit(1);
         }
-        
+    }
+    
+    // Earlier versions stored PINs in plain form. Hashing them all would hold up startup for
+    // minutes on a large store, so a low-priority thread works through them instead,
+    // committing as it goes; a login hashes its account's PIN sooner.
+    private static void upgradeLegacyPins() {
+        List<BankAccount> all = accounts.asList();
+        Thread upgrade = new Thread(() -> {
+            int upgraded = 0;
+            for (BankAccount account : all) {
+                if (account.upgradeLegacyPin() && ++upgraded % PIN_UPGRADE_BATCH == 0) {
+                    commitChanges();
+                }
+            }
+            if (upgraded > 0) {
+                commitChanges();
+            }
+        }, "pin-upgrade");
+        upgrade.setDaemon(true);
+        upgrade.setPriority(Thread.MIN_PRIORITY);
+        upgrade.start();
+    }
+    
+    // Reads the single-file store written before accounts were sharded; returns its checkpoint LSN
+    private static long loadUnshardedStore() throws IOException {
+        AccountStore unsharded = new AccountStore(STORE_FILE, HISTORY_FILE);
+        try {
+            accounts = unsharded.load();
+            System.out.println("Accounts data loaded successfully. Total accounts: " + accounts.size());
+            System.out.println("Migrating " + STORE_FILE + " to " + AccountRegistry.SHARDS + " shard files.");
+            for (BankAccount account : accounts.asList()) {
+                account.detachFromStore(); // Slots and history runs are reassigned within each shard
+            }
+            return unsharded.checkpointLsn();
+        } finally {
+            unsharded.close();
+        }
+    }
+
+    // Once the migration checkpoint is durable, the files it was migrated from are no longer needed
+    private static void finishMigration() throws IOException {
+        Files.deleteIfExists(Paths.get(MIGRATION_MARKER));
+        Files.deleteIfExists(Paths.get(STORE_FILE));
+        Files.deleteIfExists(Paths.get(HISTORY_FILE));
+    }
+
+    // Reads a snapshot written by earlier versions with Java serialization; returns its journal LSN.
+    // An unreadable snapshot is an error rather than an empty bank, and the file is left as it is.
+    @SuppressWarnings("unchecked")
+    private static long loadLegacySnapshot() throws IOException {
+        long snapshotLsn = 0;
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            accounts = (List<BankAccount>) ois.readObject();
+            accounts = new AccountRegistry((List<BankAccount>) ois.readObject());
+            try {
+                snapshotLsn = ois.readLong();
+            } catch (EOFException e) {
+                // Snapshot written before journaling existed
+            }
             System.out.println("Accounts data loaded successfully. Total accounts: " + accounts.size());
         } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Error loading accounts data: " + e.getMessage());
-            accounts = new ArrayList<>();
+            throw new IOException(DATA_FILE + " is damaged or unreadable (" + e + ")", e);
+        }
+        return snapshotLsn;
+    }
+    
+    // Reads a snapshot made by --convert; returns its journal LSN
+    private static long loadConvertedSnapshot() throws IOException {
+        accounts = new AccountRegistry();
+        long snapshotLsn = AccountCodec.read(Paths.get(CONVERTED_FILE), accounts);
+        System.out.println("Accounts data loaded successfully. Total accounts: " + accounts.size());
+        return snapshotLsn;
+    }
+    
+    // --convert: rewrites the Java-serialized DATA_FILE in the AccountCodec format, checks the copy
+    // reads back identically and compares the two. Startup then migrates from the copy instead.
+    private static void convertSnapshot() {
+        try {
+            long started = System.nanoTime();
+            long snapshotLsn = loadLegacySnapshot();
+            long deserialized = System.nanoTime();
+            List<BankAccount> all = accounts.asList();
+            AccountCodec.write(Paths.get(CONVERTED_FILE), all, snapshotLsn);
+            long written = System.nanoTime();
+            AccountRegistry copy = new AccountRegistry(all.size());
+            AccountCodec.read(Paths.get(CONVERTED_FILE), copy);
+            long read = System.nanoTime();
+            
+            for (BankAccount account : all) {
+                BankAccount converted = copy.get(account.getAccountNumber());
+                if (converted == null || !Arrays.equals(AccountCodec.encode(account), AccountCodec.encode(converted))) {
+                    Files.delete(Paths.get(CONVERTED_FILE));
+                    System.out.println("Error converting accounts data: account " + account.getAccountNumber()
+                            + " did not read back identically.");
+                    System.exit(1);
+                }
+            }
+            long before = Files.size(Paths.get(DATA_FILE));
+            long after = Files.size(Paths.get(CONVERTED_FILE));
+            System.out.printf("Converted %d accounts from %s to %s.%n", all.size(), DATA_FILE, CONVERTED_FILE);
+            System.out.printf("  Java serialization: %d bytes, read in %.1f ms%n", before,
+                    (deserialized - started) / 1e6);
+            System.out.printf("  Account codec:      %d bytes (%.0f%%), written in %.1f ms, read in %.1f ms%n", after,
+                    before > 0 ? 100.0 * after / before : 0.0, (written - deserialized) / 1e6, (read - written) / 1e6);
+        } catch (IOException e) {
+            System.out.println("Error converting accounts data: " + e.getMessage());
+            System.exit(1);
         }
     }
     
     private static void createAccount() {
         System.out.println("\n=== CREATE NEW ACCOUNT ===");
         
-        System.out.print("Enter your full name: ");
-        String name = scanner.nextLine();
+        String name;
+        while (true) {
+            System.out.print("Enter your full name: ");
+            name = scanner.nextLine();
+            if (name.getBytes(StandardCharsets.UTF_8).length <= AccountStore.MAX_NAME_BYTES) {
+                break;
+            }
+            System.out.println("Name is too long.");
+        }
         
         String type = "";
         while (!type.equalsIgnoreCase("Savings") && !type.equalsIgnoreCase("Checking")) {
@@ -111,10 +435,10 @@ public class BankApp {
             }
         }
         
-        double initialDeposit = 0;
+        long initialDeposit = 0;
         while (true) {
             System.out.print("Enter initial deposit amount: ");
-            initialDeposit = getDoubleInput();
+            initialDeposit = getAmountInput();
             if (initialDeposit >= 0) {
                 break;
             } else {
@@ -122,33 +446,40 @@ public class BankApp {
             }
         }
         
-        String accountNumber = generateAccountNumber();
-        
-        double interestRate = type.equalsIgnoreCase("Savings") ? 2.5 : 1.5;
-        
-        BankAccount newAccount = new BankAccount(name, accountNumber, type, initialDeposit, pin, interestRate);
-        accounts.add(newAccount);
+        String accountNumber = openAccount(accounts, name, type, pin, initialDeposit).getAccountNumber();
         
         System.out.println("\nAccount created successfully!");
         System.out.println("Your account number is: " + accountNumber);
         System.out.println("Please remember this number for future logins.");
     }
     
-    private static String generateAccountNumber() {
-        Random random = new Random();
-        StringBuilder sb = new StringBuilder("ACC");
-        for (int i = 0; i < 9; i++) {
-            sb.append(random.nextInt(10));
-        }
-        
-        // Check if account number already exists
-        for (BankAccount account : accounts) {
-            if (account.getAccountNumber().equals(sb.toString())) {
-                return generateAccountNumber(); // Recursively generate a new one if duplicate
-            }
+    // Creates and registers an already validated account. Drawing the number and
+    // adding it happen under one lock so concurrent openings cannot collide; the PIN
+    // is hashed before, on the PinVerifier pool (CompletionException if it is overloaded).
+    static BankAccount openAccount(AccountRegistry accounts, String name, String type, int pin, long initialDeposit) {
+        type = type.equalsIgnoreCase("Savings") ? "Savings" : "Checking"; // The store keeps only the type code
+        int interestRate = interestRateFor(type);
+        PinHash pinHash = PinVerifier.hash(pin).join();
+        synchronized (OPEN_LOCK) {
+            BankAccount account = new BankAccount(name, generateAccountNumber(accounts), type, initialDeposit,
+                    pinHash, interestRate);
+            accounts.add(account);
+            return account;
         }
+    }
+    
+    // Basis points for a new account of the given type
+    static int interestRateFor(String type) {
+        return type.equals("Savings") ? 250 : 150;
+    }
+    
+    static String generateAccountNumber(AccountRegistry accounts) {
+        long key;
+        do {
+            key = numbers.next();
+        } while (accounts.contains(key)); // Earlier versions drew numbers at random, so one may be taken
         
-        return sb.toString();
+        return AccountRegistry.toAccountNumber(key);
     }
     
     private static BankAccount login() {
@@ -161,32 +492,26 @@ public class BankApp {
         System.out.print("Enter your account number: ");
         String accNumber = scanner.nextLine();
         
-        BankAccount account = null;
-        for (BankAccount acc : accounts) {
-            if (acc.getAccountNumber().equals(accNumber)) {
-                account = acc;
-                break;
-            }
-        }
+        BankAccount account = accounts.get(accNumber);
         
         if (account == null) {
-            System.out.println("Account not found.");
+            System.out.println(notFound("Account not found.", accNumber));
             return null;
         }
         
         System.out.print("Enter your 4-digit PIN: ");
         int enteredPin = getIntInput();
         
-        if (!account.verifyPin(enteredPin)) {
+        if (!verifyPin(account, enteredPin)) {
             if (account.isLocked()) {
                 System.out.print("Account locked. Enter admin PIN to unlock: ");
                 int adminPin = getIntInput();
-                if (adminPin == ADMIN_PIN) {
-                    account.unlockAccount(adminPin);
-                    saveAccountsToFile(); // Save after unlocking account
+                if (account.unlockAccount(adminPin) == TransactionResult.SUCCESS) {
+                    System.out.println("Account unlocked successfully.");
+                    commitChanges(); // Save after unlocking account
                     System.out.print("Enter your 4-digit PIN again: ");
                     enteredPin = getIntInput();
-                    if (account.verifyPin(enteredPin)) {
+                    if (verifyPin(account, enteredPin)) {
                         return account;
                     }
                 } else {
@@ -221,55 +546,62 @@ public class BankApp {
             switch (choice) {
                 case 1:
                     System.out.print("Enter amount to deposit: ");
-                    double depositAmount = getDoubleInput();
-                    currentAccount.deposit(depositAmount);
-                    saveAccountsToFile(); // Save after deposit
+                    long depositAmount = getAmountInput();
+                    try {
+                        printDeposit(currentAccount.deposit(depositAmount), depositAmount);
+                    } catch (ArithmeticException e) {
+                        System.out.println("Deposit rejected: the balance would exceed the maximum.");
+                    }
+                    commitChanges(); // Save after deposit
                     break;
 
                 case 2:
                     System.out.print("Enter amount to withdraw: ");
-                    double withdrawAmount = getDoubleInput();
-                    currentAccount.withdraw(withdrawAmount);
-                    saveAccountsToFile(); // Save after withdrawal
+                    long withdrawAmount = getAmountInput();
+                    printWithdrawal(currentAccount.withdraw(withdrawAmount), withdrawAmount);
+                    commitChanges(); // Save after withdrawal
                     break;
 
                 case 3:
                     System.out.print("Enter recipient account number: ");
-                    scanner.nextLine(); // Consume newline
                     String recipientNumber = scanner.nextLine();
                     
-                    BankAccount recipient = null;
-                    for (BankAccount acc : accounts) {
-                        if (acc.getAccountNumber().equals(recipientNumber)) {
-                            recipient = acc;
-                            break;
-                        }
-                    }
+                    BankAccount recipient = accounts.get(recipientNumber);
                     
                     if (recipient != null && !recipient.getAccountNumber().equals(currentAccount.getAccountNumber())) {
                         System.out.print("Enter amount to transfer to " + recipient.getAccountHolderName() + ": ");
-                        double transferAmount = getDoubleInput();
-                        currentAccount.transfer(recipient, transferAmount);
-                        saveAccountsToFile(); // Save after transfer
+                        long transferAmount = getAmountInput();
+                        try {
+                            printTransfer(currentAccount.transfer(recipient, transferAmount), recipient,
+                                    transferAmount);
+                        } catch (ArithmeticException e) {
+                            System.out.println("Transfer rejected: the recipient's balance would exceed the maximum.");
+                        }
+                        commitChanges(); // Save after transfer
                     } else if (recipient != null && recipient.getAccountNumber().equals(currentAccount.getAccountNumber())) {
                         System.out.println("Cannot transfer to your own account.");
                     } else {
-                        System.out.println("Recipient account not found.");
+                        System.out.println(notFound("Recipient account not found.", recipientNumber));
                     }
                     break;
 
                 case 4:
-                    currentAccount.checkBalance();
+                    printBalance(currentAccount);
                     break;
 
                 case 5:
-                    currentAccount.showTransactionHistory();
+                    printTransactionHistory(currentAccount);
                     break;
 
                 case 6:
                     System.out.print("Enter number of days for interest calculation: ");
                     int days = getIntInput();
-                    currentAccount.calculateInterest(days);
+                    if (days > 0) {
+                        System.out.printf("Estimated interest for %d days: $%s%n", days,
+                                Money.format(currentAccount.calculateInterest(days)));
+                    } else {
+                        System.out.println("Days must be greater than zero.");
+                    }
                     break;
 
                 case 7:
@@ -289,7 +621,7 @@ public class BankApp {
 
                 case 8:
                     System.out.println("Switching accounts...");
-                    saveAccountsToFile(); // Save before switching
+                    commitChanges(); // Save before switching
                     return;
 
                 case 9:
@@ -298,7 +630,7 @@ public class BankApp {
 
                 case 10:
                     System.out.println("Thank you for banking with us!");
-                    saveAccountsToFile(); // Save before exiting
+                    commitChanges(); // Save before exiting
                     break;
 
                 default:
@@ -315,7 +647,8 @@ public class BankApp {
             System.out.println("1. Change PIN");
             System.out.println("2. View account details");
             System.out.println("3. Change interest rate (Admin only)");
-            System.out.println("4. Back to main menu");
+            System.out.println("4. Standing orders");
+            System.out.println("5. Back to main menu");
             System.out.print("Select option: ");
             
             choice = getIntInput();
@@ -326,25 +659,104 @@ public class BankApp {
                     int currentPin = getIntInput();
                     System.out.print("Enter new PIN: ");
                     int newPin = getIntInput();
-                    account.changePin(currentPin, newPin);
-                    saveAccountsToFile(); // Save after PIN change
+                    switch (account.changePin(currentPin, newPin)) {
+                        case SUCCESS:
+                            System.out.println("PIN changed successfully.");
+                            break;
+                        case ACCOUNT_LOCKED:
+                            System.out.println("Account is locked. Please contact support.");
+                            break;
+                        case BUSY:
+                            System.out.println("PIN check is busy. Please try again.");
+                            break;
+                        default:
+                            System.out.println("Incorrect current PIN.");
+                    }
+                    commitChanges(); // Save after PIN change
                     break;
                     
                 case 2:
                     System.out.println("Account Holder: " + account.getAccountHolderName());
                     System.out.println("Account Number: " + account.getAccountNumber());
                     System.out.println("Account Type: " + account.getAccountType());
-                    System.out.printf("Interest Rate: %.2f%%%n", account.getInterestRate());
-                    account.checkBalance();
+                    System.out.println("Interest Rate: " + Money.formatRate(account.getInterestRate()) + "%");
+                    printBalance(account);
                     break;
                     
                 case 3:
                     System.out.print("Enter admin PIN: ");
                     int adminPin = getIntInput();
                     System.out.print("Enter new interest rate: ");
-                    double newRate = getDoubleInput();
-                    account.setInterestRate(newRate, adminPin);
-                    saveAccountsToFile(); // Save after interest rate change
+                    long newRate = getAmountInput(); // two decimals of a percent, i.e. basis points
+                    if (newRate < 0 || newRate > MAX_INTEREST_RATE) {
+                        System.out.println("Interest rate must be between 0 and "
+                                + Money.formatRate(MAX_INTEREST_RATE) + "%.");
+                        break;
+                    }
+                    TransactionResult rateResult = account.setInterestRate((int) newRate, adminPin);
+                    if (rateResult == TransactionResult.SUCCESS) {
+                        System.out.println("Interest rate changed to " + Money.formatRate((int) newRate) + "%");
+                    } else {
+                        System.out.println("Interest rate not changed: " + rateResult.getDescription() + ".");
+                    }
+                    commitChanges(); // Save after interest rate change
+                    break;
+                    
+                case 4:
+                    standingOrdersMenu(account);
+                    break;
+                    
+                case 5:
+                    return;
+                    
+                default:
+                    System.out.println("Invalid option.");
+            }
+        } while (choice != 5);
+    }
+    
+    private static void standingOrdersMenu(BankAccount account) {
+        int choice;
+        do {
+            System.out.println("\n=== STANDING ORDERS ===");
+            System.out.println("1. Set up a standing order");
+            System.out.println("2. List standing orders");
+            System.out.println("3. Cancel a standing order");
+            System.out.println("4. Back");
+            System.out.print("Select option: ");
+            
+            choice = getIntInput();
+            
+            switch (choice) {
+                case 1:
+                    createStandingOrder(account);
+                    break;
+                    
+                case 2:
+                    List<StandingOrder> orders = standingOrders.ordersFrom(account.getAccountNumber());
+                    if (orders.isEmpty()) {
+                        System.out.println("No standing orders.");
+                    }
+                    for (StandingOrder order : orders) {
+                        System.out.printf("#%d  $%s %s to %s, next %s (%d paid, %d skipped)%n", order.getId(),
+                                Money.format(order.getAmount()), order.getFrequency().name().toLowerCase(),
+                                order.getToAccount(), formatOrderTime(order.nextFireMillis()), order.getPaid(),
+                                order.getSkipped());
+                    }
+                    break;
+                    
+                case 3:
+                    System.out.print("Enter standing order number: ");
+                    int id = getIntInput();
+                    try {
+                        if (standingOrders.cancel(id, account.getAccountNumber())) {
+                            System.out.println("Standing order cancelled.");
+                        } else {
+                            System.out.println("No such standing order.");
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Error saving standing orders: " + e.getMessage());
+                    }
                     break;
                     
                 case 4:
@@ -355,7 +767,268 @@ public class BankApp {
             }
         } while (choice != 4);
     }
+    
+    private static void createStandingOrder(BankAccount account) {
+        System.out.print("Enter recipient account number: ");
+        String recipientNumber = scanner.nextLine();
+        BankAccount recipient = accounts.get(recipientNumber);
+        if (recipient == null) {
+            System.out.println(notFound("Recipient account not found.", recipientNumber));
+            return;
+        } else if (recipient == account) {
+            System.out.println("Cannot transfer to your own account.");
+            return;
+        }
+        System.out.print("Enter amount to transfer each time: ");
+        long amount = getAmountInput();
+        if (amount <= 0) {
+            System.out.println("Amount must be greater than zero.");
+            return;
+        }
+        System.out.print("Frequency (1. Daily, 2. Weekly, 3. Monthly): ");
+        int frequency = getIntInput();
+        if (frequency < 1 || frequency > StandingOrder.Frequency.values().length) {
+            System.out.println("Invalid frequency.");
+            return;
+        }
+        System.out.print("Days until the first payment (0 for today): ");
+        int days = getIntInput();
+        if (days < 0) {
+            System.out.println("Days cannot be negative.");
+            return;
+        }
+        
+        long firstDue = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(days);
+        try {
+            StandingOrder order = standingOrders.create(account.getAccountNumber(), recipient.getAccountNumber(),
+                    amount, StandingOrder.Frequency.values()[frequency - 1], firstDue);
+            System.out.println("Standing order #" + order.getId() + " set up. First payment: "
+                    + formatOrderTime(order.nextFireMillis()));
+        } catch (IOException e) {
+            System.out.println("Error saving standing orders: " + e.getMessage());
+        }
+    }
+    
+    private static String formatOrderTime(long millis) {
+        return ORDER_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()));
+    }
 
+    private static void adminMenu() {
+        System.out.print("Enter admin PIN: ");
+        if (BankAccount.verifyAdminPin(getIntInput()) != TransactionResult.SUCCESS) {
+            System.out.println("Invalid admin PIN.");
+            return;
+        }
+        
+        int choice;
+        do {
+            System.out.println("\n=== ADMIN TOOLS ===");
+            System.out.println("1. Post interest to all accounts");
+            System.out.println("2. Account totals report");
+            System.out.println("3. Reconcile totals with a full scan");
+            System.out.println("4. Find accounts by holder name");
+            System.out.println("5. Back to main menu");
+            System.out.print("Select option: ");
+            
+            choice = getIntInput();
+            
+            switch (choice) {
+                case 1:
+                    System.out.print("Enter number of days to accrue: ");
+                    int days = getIntInput();
+                    if (days > 0) {
+                        postInterest(days);
+                    } else {
+                        System.out.println("Days must be greater than zero.");
+                    }
+                    break;
+                    
+                case 2:
+                    System.out.println("\n=== ACCOUNT TOTALS ===");
+                    printTotals(accounts.totals().snapshot());
+                    break;
+                    
+                case 3:
+                    reconcileTotals(true);
+                    break;
+                    
+                case 4:
+                    System.out.print("Enter account holder name: ");
+                    findByHolderName(scanner.nextLine());
+                    break;
+                    
+                case 5:
+                    return;
+                    
+                default:
+                    System.out.println("Invalid option.");
+            }
+        } while (choice != 5);
+    }
+    
+    // Index lookup, so it costs the same however many accounts there are
+    private static void findByHolderName(String name) {
+        List<BankAccount> matches = accounts.findByHolderName(name);
+        if (matches.isEmpty()) {
+            System.out.println("No accounts held by " + name.trim() + ".");
+            return;
+        }
+        for (BankAccount account : matches) {
+            System.out.printf("%s  %-8s  $%s%s%n", account.getAccountNumber(), account.getAccountType(),
+                    Money.format(account.getBalance()), account.isLocked() ? "  (locked)" : "");
+        }
+    }
+    
+    private static void printTotals(AccountTotals.Snapshot totals) {
+        System.out.printf("Savings:  %d accounts holding $%s%n", totals.getSavingsAccounts(),
+                Money.format(totals.getSavingsBalance()));
+        System.out.printf("Checking: %d accounts holding $%s%n", totals.getCheckingAccounts(),
+                Money.format(totals.getCheckingBalance()));
+        System.out.printf("Total:    %d accounts holding $%s%n", totals.getTotalAccounts(),
+                Money.format(totals.getTotalBalance()));
+        System.out.println("Locked accounts: " + totals.getLockedAccounts());
+    }
+    
+    // Checks the running totals against a parallel scan of every account; verbose prints a match too
+    private static void reconcileTotals(boolean verbose) {
+        long started = System.nanoTime();
+        List<BankAccount> all = accounts.asList();
+        AccountTotals.Reconciliation result = accounts.totals().reconcile(all);
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        if (!result.matches()) {
+            System.out.println("Account totals differ from a full scan of " + all.size() + " accounts.");
+            System.out.println("Running totals:");
+            printTotals(result.getCounted());
+            System.out.println("Scanned:");
+            printTotals(result.getScanned());
+        } else if (verbose) {
+            System.out.println("Account totals match a full scan of " + all.size() + " accounts (" + millis + " ms).");
+        }
+    }
+    
+    // Every RECONCILE_INTERVAL_MINUTES (-Dbank.reconcileMinutes=N, 0 to disable) in the background,
+    // reporting only differences
+    private static void scheduleReconciliation() {
+        if (RECONCILE_INTERVAL_MINUTES <= 0) {
+            return;
+        }
+        ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> reconcileTotals(false), RECONCILE_INTERVAL_MINUTES,
+                RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+    
+    // Credit interest across all accounts in parallel, then make the credits durable in one commit
+    private static void postInterest(int days) {
+        long started = System.nanoTime();
+        InterestAccrual.Summary summary = InterestAccrual.run(accounts.asList(), days, true);
+        commitChanges();
+        System.out.printf("Posted %d days of interest to %d accounts in %d ms%n", days,
+                summary.getAccountsCredited(), (System.nanoTime() - started) / 1_000_000);
+        System.out.println("Savings: $" + Money.format(summary.getSavingsInterest())
+                + "  Checking: $" + Money.format(summary.getCheckingInterest())
+                + "  Total: $" + Money.format(summary.getTotalInterest()));
+    }
+    
+    // Console rendering of operation outcomes; BankAccount itself never prints
+    private static String notFound(String message, String accountNumber) {
+        long key = AccountRegistry.toKey(accountNumber);
+        return key >= 0 && !AccountNumberAllocator.hasValidCheckDigit(key)
+                ? message + " Please check the number for a mistyped digit."
+                : message;
+    }
+    
+    private static boolean verifyPin(BankAccount account, int enteredPin) {
+        switch (account.verifyPin(enteredPin)) {
+            case SUCCESS:
+                return true;
+            case ACCOUNT_LOCKED:
+                System.out.println("Account is locked. Please contact support.");
+                return false;
+            case LOCKED_OUT:
+                System.out.println("Too many failed attempts. Account locked.");
+                return false;
+            case THROTTLED:
+                System.out.println("Too many failed attempts. Please try again later.");
+                return false;
+            case BUSY:
+                System.out.println("PIN check is busy. Please try again.");
+                return false;
+            default:
+                System.out.println("Incorrect PIN. " + account.getRemainingAttempts() + " attempts remaining.");
+                return false;
+        }
+    }
+    
+    private static void printDeposit(TransactionResult result, long amount) {
+        switch (result) {
+            case SUCCESS:
+                System.out.printf("Successfully deposited: $%s%n", Money.format(amount));
+                break;
+            case ACCOUNT_LOCKED:
+                System.out.println("Account is locked. Please contact support.");
+                break;
+            default:
+                System.out.println("Deposit amount must be greater than zero.");
+        }
+    }
+    
+    private static void printWithdrawal(TransactionResult result, long amount) {
+        switch (result) {
+            case SUCCESS:
+                System.out.printf("Successfully withdrew: $%s%n", Money.format(amount));
+                break;
+            case ACCOUNT_LOCKED:
+                System.out.println("Account is locked. Please contact support.");
+                break;
+            case INSUFFICIENT_FUNDS:
+                System.out.println("Insufficient balance for this withdrawal.");
+                break;
+            default:
+                System.out.println("Withdraw amount must be greater than zero.");
+        }
+    }
+    
+    private static void printTransfer(TransactionResult result, BankAccount recipient, long amount) {
+        switch (result) {
+            case SUCCESS:
+                System.out.printf("Transferred $%s to %s%n", Money.format(amount), recipient.getAccountHolderName());
+                break;
+            case SAME_ACCOUNT:
+                System.out.println("Cannot transfer to your own account.");
+                break;
+            case ACCOUNT_LOCKED:
+                System.out.println("Account is locked. Please contact support.");
+                break;
+            case INSUFFICIENT_FUNDS:
+                System.out.println("Insufficient balance for this transfer.");
+                break;
+            default:
+                System.out.println("Transfer amount must be greater than zero.");
+        }
+    }
+    
+    private static void printBalance(BankAccount account) {
+        System.out.printf("Current balance: $%s%n", Money.format(account.getBalance()));
+    }
+    
+    private static void printTransactionHistory(BankAccount account) {
+        List<String> lines = account.getTransactionHistory();
+        System.out.println("\n--- Transaction History ---");
+        if (lines.isEmpty()) {
+            System.out.println("No transactions yet.");
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+        System.out.print(text);
+    }
+    
     private static void applyTheme(String theme) {
         System.out.println("\n[Theme: " + theme + "]");
     }
@@ -370,13 +1043,17 @@ public class BankApp {
         return input;
     }
     
-    private static double getDoubleInput() {
-        while (!scanner.hasNextDouble()) {
-            System.out.println("Please enter a valid number.");
-            scanner.next();
+    // Reads a decimal amount with up to two decimal places as a whole number of cents
+    private static long getAmountInput() {
+        while (true) {
+            String token = scanner.next();
+            try {
+                long input = Money.parse(token);
+                scanner.nextLine();
+                return input;
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Please enter a valid number.");
+            }
         }
-        double input = scanner.nextDouble();
-        scanner.nextLine();
-        return input;
     }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+// Micro-benchmarks for the core operations at several registry sizes.
+//   java -Xmx4g BankBenchmark [--scales 1000,100000,1000000] [--iterations 5]
+// Each benchmark runs warmup iterations before the measured ones and reports
+// the mean time per operation and the bytes allocated per operation by the
+// benchmark thread (from the JVM's per-thread allocation counter).
+public class BankBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int OPS_PER_ITERATION = 200_000;
+    private static final int HISTORY_ENTRIES = 1_000;
+    private static final int STORED_HISTORY_ENTRIES = 8;
+    private static final int PIN = 1234;
+    private static final PinHash PIN_HASH = PinHash.create(PIN); // Hashed once, shared by every account
+    // PIN checks cost milliseconds by design, so far fewer of them are timed
+    private static final int PIN_OPS_PER_ITERATION = 100;
+    private static final int LOGINS_IN_FLIGHT = 64;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are folded into this field so the JIT cannot drop the measured work
+    private static volatile long sink;
+    private static final WritableByteChannel DISCARD = Channels.newChannel(OutputStream.nullOutputStream());
+
+    private interface Operation {
+        long run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] scales = {1_000, 100_000, 1_000_000};
+        int iterations = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--scales")) {
+                String[] parts = args[i + 1].split(",");
+                scales = new int[parts.length];
+                for (int j = 0; j < parts.length; j++) {
+                    scales[j] = Integer.parseInt(parts[j].trim());
+                }
+            } else if (args[i].equals("--iterations")) {
+                iterations = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        System.out.printf("%-24s %10s %14s %12s%n", "Benchmark", "Accounts", "ns/op", "B/op");
+        for (int scale : scales) {
+            run(scale, iterations);
+        }
+    }
+
+    private static void run(int scale, int iterations) throws Exception {
+        BankAccount.setJournal(null);
+        AccountRegistry accounts = populate(scale);
+        List<BankAccount> list = accounts.asList();
+        String[] numbers = new String[scale];
+        for (int i = 0; i < scale; i++) {
+            numbers[i] = list.get(i).getAccountNumber();
+        }
+
+        measure("deposit", scale, iterations, OPS_PER_ITERATION,
+                i -> list.get(spread(i, scale)).deposit(1).ordinal());
+        measure("withdraw", scale, iterations, OPS_PER_ITERATION,
+                i -> list.get(spread(i, scale)).withdraw(1).ordinal());
+        measure("transfer", scale, iterations, OPS_PER_ITERATION, i -> {
+            int from = spread(i, scale);
+            return list.get(from).transfer(list.get((from + 1) % scale), 1).ordinal();
+        });
+        measure("verifyPin", scale, iterations, PIN_OPS_PER_ITERATION,
+                i -> list.get(spread(i, scale)).verifyPin(PIN).ordinal());
+        // Login throughput: up to LOGINS_IN_FLIGHT checks queued on the PinVerifier pool at once
+        List<CompletableFuture<TransactionResult>> logins = new ArrayList<>();
+        measure("verifyPin concurrent", scale, iterations, PIN_OPS_PER_ITERATION, i -> {
+            long done = 0;
+            if (logins.size() == LOGINS_IN_FLIGHT) {
+                done = logins.remove(0).join().ordinal();
+            }
+            logins.add(list.get(spread(i, scale)).verifyPinAsync(PIN, "benchmark"));
+            return done;
+        });
+        logins.forEach(CompletableFuture::join);
+        measure("login lookup", scale, iterations, OPS_PER_ITERATION,
+                i -> accounts.get(numbers[spread(i, scale)]).getBalance());
+        measure("generateAccountNumber", scale, iterations, OPS_PER_ITERATION,
+                i -> BankApp.generateAccountNumber(accounts).length());
+
+        // History listing as the menu renders it: one formatted line per entry
+        BankAccount busy = new BankAccount("Busy", numbers[0], "Savings", 0, PIN_HASH, 250);
+        for (int i = 1; i < HISTORY_ENTRIES; i++) {
+            busy.deposit(1);
+        }
+        measure("showTransactionHistory", scale, iterations, OPS_PER_ITERATION / HISTORY_ENTRIES,
+                i -> busy.getTransactionHistory().size());
+        measure("history page", scale, iterations, OPS_PER_ITERATION / 20,
+                i -> busy.getHistoryPage(HistoryQuery.all(), HistoryPage.FIRST, 20).getEntries().size());
+        measure("statement export", scale, iterations, OPS_PER_ITERATION / HISTORY_ENTRIES,
+                i -> StatementExport.writeCsv(busy, HistoryQuery.all(), DISCARD));
+
+        // Full checkpoint of every account into a fresh store, then a cold load of it.
+        // A new population keeps the history written per account independent of the runs above.
+        List<BankAccount> stored = populate(scale).asList();
+        for (BankAccount account : stored) {
+            for (int i = 1; i < STORED_HISTORY_ENTRIES; i++) {
+                account.deposit(100);
+            }
+        }
+        // One account to and from the AccountCodec form bank_data.dat is converted to
+        byte[][] encoded = new byte[Math.min(stored.size(), 1024)][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = AccountCodec.encode(stored.get(i));
+        }
+        measure("codec encode", scale, iterations, OPS_PER_ITERATION / 10,
+                i -> AccountCodec.encode(stored.get(i % stored.size())).length);
+        measure("codec decode", scale, iterations, OPS_PER_ITERATION / 10,
+                i -> AccountCodec.decode(encoded[i % encoded.length]).getBalance());
+        Path dir = Files.createTempDirectory("bank-benchmark");
+        try {
+            Path slots = dir.resolve("accounts.db");
+            Path history = dir.resolve("history.db");
+            measure("saveAccountsToFile", scale, iterations, 1, i -> {
+                ShardedAccountStore.deleteFiles(slots.toString(), history.toString());
+                ShardedAccountStore store = new ShardedAccountStore(slots.toString(), history.toString());
+                for (BankAccount account : stored) {
+                    account.detachFromStore();
+                }
+                store.checkpoint(stored, 0);
+                store.close();
+                return 0;
+            });
+            measure("loadAccountsFromFile", scale, iterations, 1, i -> {
+                ShardedAccountStore store = new ShardedAccountStore(slots.toString(), history.toString());
+                long loaded = store.load().size();
+                store.close();
+                return loaded;
+            });
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(BankBenchmark::delete);
+            }
+        }
+    }
+
+    private static AccountRegistry populate(int scale) {
+        AccountRegistry accounts = new AccountRegistry(scale);
+        for (int i = 0; i < scale; i++) {
+            accounts.add(new BankAccount("Holder " + i, AccountRegistry.toAccountNumber(i * 7919L % 1_000_000_000L),
+                    i % 2 == 0 ? "Savings" : "Checking", 1_000_000_000_000L, PIN_HASH, i % 2 == 0 ? 250 : 150));
+        }
+        return accounts;
+    }
+
+    private static void measure(String name, int scale, int iterations, int ops, Operation operation)
+            throws Exception {
+        long thread = Thread.currentThread().getId();
+        List<Double> times = new ArrayList<>();
+        long allocated = 0;
+        int call = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + iterations; iteration++) {
+            long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+            long started = System.nanoTime();
+            long result = 0;
+            for (int i = 0; i < ops; i++) {
+                result += operation.run(call++);
+            }
+            long elapsed = System.nanoTime() - started;
+            long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+            sink += result;
+            if (iteration >= WARMUP_ITERATIONS) {
+                times.add((double) elapsed / ops);
+                allocated += bytes;
+            }
+        }
+        double mean = times.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        System.out.printf("%-24s %10d %14.1f %12.1f%n", name, scale, mean, (double) allocated / ((long) iterations * ops));
+    }
+
+    // Visits accounts in a scattered order so each operation touches a different part of the heap
+    private static int spread(int i, int scale) {
+        return (int) ((i * 2654435761L & 0xFFFFFFFFL) % scale);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            // Best effort cleanup of the temporary store
+        }
+    }
+}
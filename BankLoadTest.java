@@ -0,0 +1,116 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Load generator for BankServer. Opens one account per simulated client, logs
+// every client in (reporting the login rate, which PIN hashing bounds), then
+// has all clients issue deposits concurrently, each client sending its next
+// request as soon as the previous one is answered.
+//   java BankLoadTest [--url http://localhost:8080] [--clients 10000] [--requests 20]
+// Tens of thousands of clients need a matching open-file limit (ulimit -n) on both ends.
+public class BankLoadTest {
+    private static final int SETUP_CONCURRENCY = 512;
+
+    private static HttpClient http;
+    private static String url = "http://localhost:8080";
+
+    public static void main(String[] args) throws Exception {
+        int clients = 10_000;
+        int requests = 20;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--url")) {
+                url = args[i + 1];
+            } else if (args[i].equals("--clients")) {
+                clients = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--requests")) {
+                requests = Integer.parseInt(args[i + 1]);
+            }
+        }
+        http = HttpClient.newBuilder()
+                .executor(BankServer.newExecutor())
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        System.out.println("Client requests run on " + BankServer.executorName());
+
+        long started = System.nanoTime();
+        List<String> numbers = setup(clients, i -> post("/accounts", null,
+                "{\"name\":\"Load " + i + "\",\"type\":\"Checking\",\"pin\":1234,\"initialDeposit\":\"0\"}")
+                .thenApply(body -> Json.parseObject(body).get("accountNumber")));
+        System.out.printf("Opened %d accounts in %.1f s%n", clients, (System.nanoTime() - started) / 1e9);
+        started = System.nanoTime();
+        List<String> tokens = setup(clients, i -> post("/login", null,
+                "{\"accountNumber\":\"" + numbers.get(i) + "\",\"pin\":1234}")
+                .thenApply(body -> Json.parseObject(body).get("token")));
+        double loginSeconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("Logged in %d clients in %.1f s (%.0f logins/s)%n", clients, loginSeconds,
+                clients / loginSeconds);
+
+        long[] latencies = new long[clients * requests];
+        AtomicInteger failures = new AtomicInteger();
+        started = System.nanoTime();
+        CompletableFuture<?>[] runs = new CompletableFuture<?>[clients];
+        for (int c = 0; c < clients; c++) {
+            runs[c] = depositLoop(tokens.get(c), requests, latencies, c * requests, failures);
+        }
+        CompletableFuture.allOf(runs).join();
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d clients x %d deposits: %d requests in %.1f s (%.0f req/s), %d failed%n",
+                clients, requests, latencies.length, seconds, latencies.length / seconds, failures.get());
+        System.out.printf("Latency ms  p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n", percentile(latencies, 0.50),
+                percentile(latencies, 0.90), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+        System.exit(failures.get() == 0 ? 0 : 1); // The client's pool threads would keep the JVM running
+    }
+
+    // Runs one setup call per client with bounded concurrency and collects the results in order
+    private static List<String> setup(int clients, IntFunction<CompletableFuture<String>> call) {
+        Semaphore permits = new Semaphore(SETUP_CONCURRENCY);
+        List<CompletableFuture<String>> results = IntStream.range(0, clients).mapToObj(i -> {
+            permits.acquireUninterruptibly();
+            return call.apply(i).whenComplete((value, error) -> permits.release());
+        }).collect(Collectors.toList());
+        return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    private static CompletableFuture<Void> depositLoop(String token, int remaining, long[] latencies, int slot,
+            AtomicInteger failures) {
+        if (remaining == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long sent = System.nanoTime();
+        return post("/deposit", token, "{\"amount\":\"1.00\"}")
+                .handle((body, error) -> {
+                    latencies[slot] = System.nanoTime() - sent;
+                    if (error != null || !Json.parseObject(body).containsKey("balance")) {
+                        failures.incrementAndGet();
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> depositLoop(token, remaining - 1, latencies, slot + 1, failures));
+    }
+
+    private static CompletableFuture<String> post(String path, String token, String json) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).thenApply(HttpResponse::body);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e6;
+    }
+}
@@ -0,0 +1,413 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Local HTTP/JSON API over the same accounts the console menu uses.
+//   POST /accounts  {"name", "type", "pin", "initialDeposit"}
+//   POST /login     {"accountNumber", "pin"}            -> {"token"}
+//   POST /logout
+//   GET  /balance
+//   POST /deposit   {"amount"}    POST /withdraw {"amount"}
+//   POST /transfer  {"to", "amount"}
+//   GET  /history   ?limit=&cursor=&from=&to=&type=  -> {"transactions", "nextCursor"}
+//   GET  /statement ?from=&to=&type=                 -> CSV
+// Requests after login carry "Authorization: Bearer <token>"; the session it
+// names takes the place of the console's current account. A client address
+// with too many recent failed logins is answered 429 until they age out, and
+// 503 means PIN checks are momentarily saturated. Deposits,
+// withdrawals and transfers may carry an "Idempotency-Key" header: a retry
+// with the same key is answered as before (with "Idempotent-Replayed: true")
+// without moving money again, even across a server restart. Amounts are sent
+// and returned as decimal strings. History is paged newest first: pass
+// nextCursor back as cursor until it is null. from and to are yyyy-MM-dd
+// (inclusive) and type is a comma-separated list of TransactionHistory type
+// names such as deposit,transfer_out. Each request runs on its own virtual
+// thread when the JDK provides them, otherwise on a fixed pool.
+public class BankServer {
+    private static final int FALLBACK_THREADS = 256;
+    private static final int BACKLOG = 4096;
+    private static final long SESSION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    private final AccountRegistry accounts;
+    private final Runnable commit;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService reaper;
+
+    private static final class Session {
+        final BankAccount account;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Session(BankAccount account) {
+            this.account = account;
+        }
+    }
+
+    // Thrown by handlers to answer with an error status and message
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // commit must make journaled operations durable before a response is sent, or throw if it cannot
+    public BankServer(AccountRegistry accounts, Runnable commit) {
+        this.accounts = accounts;
+        this.commit = commit;
+    }
+
+    public void start(int port) throws IOException {
+        executor = newExecutor();
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleAtFixedRate(this::expireSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        server.stop(1);
+        reaper.shutdownNow();
+        executor.shutdown();
+    }
+
+    // Virtual threads arrived in JDK 21; looked up reflectively so the project still runs on 17.
+    // Null when absent or unusable (a preview API that is not enabled)
+    private static Method virtualExecutorFactory() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ((ExecutorService) factory.invoke(null)).shutdown();
+            return factory;
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    static ExecutorService newExecutor() {
+        try {
+            if (VIRTUAL_EXECUTOR != null) {
+                return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+            }
+        } catch (ReflectiveOperationException e) {
+            // Worked when probed; fall back all the same
+        }
+        return Executors.newFixedThreadPool(FALLBACK_THREADS);
+    }
+
+    // What newExecutor() runs tasks on, for startup and load test reports
+    static String executorName() {
+        return VIRTUAL_EXECUTOR != null ? "virtual threads"
+                : "a " + FALLBACK_THREADS + "-thread pool (virtual threads need JDK 21+)";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            String route = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+            switch (route) {
+                case "POST /accounts":
+                    status = 201;
+                    body = openAccount(readBody(exchange));
+                    break;
+                case "POST /login":
+                    body = login(readBody(exchange), exchange.getRemoteAddress().getAddress().getHostAddress());
+                    break;
+                case "POST /logout":
+                    sessions.remove(token(exchange));
+                    body = Json.object("result", TransactionResult.SUCCESS.name());
+                    break;
+                case "GET /balance":
+                    body = balance(session(exchange).account);
+                    break;
+                case "POST /deposit": {
+                    BankAccount account = session(exchange).account;
+                    body = respond(exchange, account,
+                            account.deposit(amount(readBody(exchange)), requestKey(exchange)));
+                    break;
+                }
+                case "POST /withdraw": {
+                    BankAccount account = session(exchange).account;
+                    body = respond(exchange, account,
+                            account.withdraw(amount(readBody(exchange)), requestKey(exchange)));
+                    break;
+                }
+                case "POST /transfer":
+                    body = transfer(exchange, session(exchange).account, readBody(exchange));
+                    break;
+                case "GET /history":
+                    body = history(session(exchange).account, parameters(exchange));
+                    break;
+                case "GET /statement":
+                    statement(exchange, session(exchange).account, parameters(exchange));
+                    return;
+                default:
+                    throw new ApiException(404, "no such endpoint");
+            }
+        } catch (ApiException e) {
+            status = e.status;
+            body = Json.object("error", e.getMessage());
+        } catch (IllegalArgumentException | ArithmeticException | DateTimeException e) {
+            status = 400;
+            body = Json.object("error", "malformed request");
+        } catch (RuntimeException e) { // A failed commit, journal write or history read
+            System.out.println("Error handling " + exchange.getRequestURI().getPath() + ": " + e);
+            if (exchange.getResponseCode() != -1) {
+                exchange.close(); // A statement was already streaming; the client sees it cut short
+                return;
+            }
+            status = 500;
+            body = Json.object("error", "internal error");
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Same rules as the console's account creation
+    private String openAccount(Map<String, String> request) {
+        String name = required(request, "name");
+        String type = required(request, "type");
+        int pin = Integer.parseInt(required(request, "pin"));
+        long initialDeposit = Money.parse(required(request, "initialDeposit"));
+        if (name.getBytes(StandardCharsets.UTF_8).length > AccountStore.MAX_NAME_BYTES) {
+            throw new ApiException(400, "name is too long");
+        } else if (!type.equalsIgnoreCase("Savings") && !type.equalsIgnoreCase("Checking")) {
+            throw new ApiException(400, "type must be Savings or Checking");
+        } else if (pin < 1000 || pin > 9999) {
+            throw new ApiException(400, "PIN must be a 4-digit number");
+        } else if (initialDeposit < 0) {
+            throw new ApiException(400, "initial deposit cannot be negative");
+        }
+        BankAccount account;
+        try {
+            account = BankApp.openAccount(accounts, name, type, pin, initialDeposit);
+        } catch (CompletionException e) {
+            throw new ApiException(503, TransactionResult.BUSY.getDescription());
+        }
+        commit.run();
+        return Json.object("accountNumber", account.getAccountNumber());
+    }
+
+    // Failed attempts count against the account and against the client's address
+    private String login(Map<String, String> request, String source) {
+        BankAccount account = accounts.get(required(request, "accountNumber"));
+        if (account == null) {
+            throw new ApiException(404, TransactionResult.UNKNOWN_ACCOUNT.getDescription());
+        }
+        TransactionResult result = account.verifyPin(Integer.parseInt(required(request, "pin")), source);
+        if (result == TransactionResult.LOCKED_OUT) {
+            commit.run(); // The lockout is journaled
+        }
+        if (result == TransactionResult.INCORRECT_PIN) {
+            throw new ApiException(401,
+                    result.getDescription() + ", " + account.getRemainingAttempts() + " attempts remaining");
+        } else if (result != TransactionResult.SUCCESS) {
+            throw new ApiException(statusOf(result), result.getDescription());
+        }
+
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        sessions.put(token, new Session(account));
+        return Json.object("token", token, "accountNumber", account.getAccountNumber(),
+                "name", account.getAccountHolderName());
+    }
+
+    private String transfer(HttpExchange exchange, BankAccount account, Map<String, String> request) {
+        BankAccount recipient = accounts.get(required(request, "to"));
+        long amount = amount(request);
+        if (recipient == null) {
+            throw new ApiException(404, TransactionResult.UNKNOWN_ACCOUNT.getDescription());
+        }
+        return respond(exchange, account, account.transfer(recipient, amount, requestKey(exchange)));
+    }
+
+    private static String history(BankAccount account, Map<String, String> parameters) {
+        int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : DEFAULT_PAGE_SIZE;
+        int cursor = parameters.containsKey("cursor") ? Integer.parseInt(parameters.get("cursor")) : HistoryPage.FIRST;
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new ApiException(400, "limit must be between 1 and " + MAX_PAGE_SIZE);
+        } else if (cursor <= 0) {
+            throw new ApiException(400, "invalid cursor");
+        }
+        HistoryPage page = account.getHistoryPage(historyQuery(parameters), cursor, limit);
+        return Json.object("transactions", page.getEntries(),
+                "nextCursor", page.hasMore() ? page.getNextCursor() : null);
+    }
+
+    // Streams the CSV as it is produced; the length is not known up front, so the response is chunked
+    private static void statement(HttpExchange exchange, BankAccount account, Map<String, String> parameters)
+            throws IOException {
+        HistoryQuery query = historyQuery(parameters);
+        exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+        exchange.getResponseHeaders().set("Content-Disposition",
+                "attachment; filename=\"statement-" + account.getAccountNumber() + ".csv\"");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            StatementExport.writeCsv(account, query, Channels.newChannel(out));
+        }
+    }
+
+    private static HistoryQuery historyQuery(Map<String, String> parameters) {
+        HistoryQuery query = HistoryQuery.all();
+        if (parameters.containsKey("from") || parameters.containsKey("to")) {
+            String from = parameters.get("from");
+            String to = parameters.get("to");
+            query = query.between(from == null ? null : LocalDate.parse(from), to == null ? null : LocalDate.parse(to));
+        }
+        if (parameters.containsKey("type")) {
+            String[] names = parameters.get("type").split(",");
+            byte[] types = new byte[names.length];
+            for (int i = 0; i < names.length; i++) {
+                types[i] = TransactionHistory.typeOf(names[i].trim());
+                if (types[i] < 0) {
+                    throw new ApiException(400, "unknown transaction type: " + names[i]);
+                }
+            }
+            query = query.withTypes(types);
+        }
+        return query;
+    }
+
+    // A duplicate is committed too: its original may still be waiting on the group commit
+    private String respond(HttpExchange exchange, BankAccount account, TransactionResult result) {
+        if (result == TransactionResult.DUPLICATE) {
+            exchange.getResponseHeaders().set("Idempotent-Replayed", "true");
+        } else if (result != TransactionResult.SUCCESS) {
+            throw new ApiException(statusOf(result), result.getDescription());
+        }
+        commit.run();
+        return balance(account);
+    }
+
+    private static String balance(BankAccount account) {
+        return Json.object("accountNumber", account.getAccountNumber(), "balance", Money.format(account.getBalance()));
+    }
+
+    private static int statusOf(TransactionResult result) {
+        switch (result) {
+            case INVALID_AMOUNT:
+                return 400;
+            case INCORRECT_PIN:
+                return 401;
+            case UNKNOWN_ACCOUNT:
+                return 404;
+            case INSUFFICIENT_FUNDS:
+            case SAME_ACCOUNT:
+                return 409;
+            case KEY_REUSED:
+                return 422;
+            case THROTTLED:
+                return 429;
+            case BUSY:
+                return 503;
+            default:
+                return 403;
+        }
+    }
+
+    private Session session(HttpExchange exchange) {
+        Session session = sessions.get(token(exchange));
+        long now = System.currentTimeMillis();
+        if (session == null || now - session.lastUsed > SESSION_IDLE_MILLIS) {
+            throw new ApiException(401, "not logged in");
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    private static String requestKey(HttpExchange exchange) {
+        return exchange.getRequestHeaders().getFirst("Idempotency-Key");
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : "";
+    }
+
+    private void expireSessions() {
+        long cutoff = System.currentTimeMillis() - SESSION_IDLE_MILLIS;
+        sessions.values().removeIf(session -> session.lastUsed < cutoff);
+    }
+
+    // Query string parameters, URL-decoded
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if (split > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "request body too large");
+            }
+            return bytes.length == 0 ? Collections.emptyMap()
+                    : Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long amount(Map<String, String> request) {
+        return Money.parse(required(request, "amount"));
+    }
+
+    private static String required(Map<String, String> request, String field) {
+        String value = request.get(field);
+        if (value == null) {
+            throw new ApiException(400, "missing field: " + field);
+        }
+        return value;
+    }
+}
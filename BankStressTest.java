@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Concurrency stress test for the account locks. Many threads run random
+// deposits, withdrawals and transfers over a small shared set of accounts, so
+// most transfers contend with one going the opposite way between the same two
+// accounts. Afterwards the money held must equal the opening balances plus
+// every accepted deposit less every accepted withdrawal, no balance may be
+// negative, and the registry's running totals must match a full scan. Threads
+// still running at the deadline fail the run, reporting any lock cycle the JVM finds.
+// Exits with status 1 if any check fails.
+//   java BankStressTest [--threads 64] [--accounts 16] [--operations 50000] [--seconds 120]
+public class BankStressTest {
+    private static final long OPENING_BALANCE = 1_000_000; // cents
+    private static final long MAX_AMOUNT = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = 64;
+        int accountCount = 16;
+        int operations = 50_000;
+        int seconds = 120;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--accounts")) {
+                accountCount = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--operations")) {
+                operations = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--seconds")) {
+                seconds = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        AccountRegistry registry = new AccountRegistry(accountCount);
+        PinHash pin = PinHash.legacy(1234); // Never checked here
+        for (int i = 0; i < accountCount; i++) {
+            registry.add(new BankAccount("Stress " + i, AccountRegistry.toAccountNumber(i + 1), "Checking",
+                    OPENING_BALANCE, pin, 150));
+        }
+        List<BankAccount> accounts = registry.asList();
+
+        LongAdder deposited = new LongAdder();
+        LongAdder withdrawn = new LongAdder();
+        LongAdder transfers = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "stress");
+            thread.setDaemon(true); // A deadlocked run must not keep the JVM alive
+            return thread;
+        });
+        int perThread = operations;
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await(); // Every thread starts together
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    BankAccount account = accounts.get(random.nextInt(accounts.size()));
+                    long amount = 1 + random.nextLong(MAX_AMOUNT);
+                    int kind = random.nextInt(10);
+                    if (kind < 2) {
+                        count(account.deposit(amount), deposited, amount, rejected);
+                    } else if (kind < 4) {
+                        count(account.withdraw(amount), withdrawn, amount, rejected);
+                    } else {
+                        // Either direction between any pair, so opposite-direction transfers run together
+                        BankAccount recipient = accounts.get(random.nextInt(accounts.size()));
+                        if (recipient != account) {
+                            count(account.transfer(recipient, amount), transfers, 1, rejected);
+                        }
+                    }
+                }
+            });
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        boolean finished = pool.awaitTermination(seconds, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        if (!finished) {
+            System.out.println("FAIL: operations still running after " + seconds + " s");
+            ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+            long[] deadlocked = mx.findDeadlockedThreads();
+            if (deadlocked != null) {
+                for (ThreadInfo info : mx.getThreadInfo(deadlocked, true, true)) {
+                    System.out.print(info);
+                }
+            }
+            System.out.println("FAILED");
+            System.exit(1); // Balances cannot be read while their locks are held
+        }
+
+        boolean failed = false;
+
+        long expected = OPENING_BALANCE * accountCount + deposited.sum() - withdrawn.sum();
+        long actual = 0;
+        for (BankAccount account : accounts) {
+            long balance = account.getBalance();
+            if (balance < 0) {
+                failed = true;
+                System.out.println("FAIL: " + account.getAccountNumber() + " has a negative balance " + balance);
+            }
+            actual += balance;
+        }
+        AccountTotals.Reconciliation totals = registry.totals().reconcile(accounts);
+
+        System.out.printf("%d threads x %d operations over %d accounts in %.2f s (%.0f ops/s)%n", threads,
+                perThread, accountCount, elapsed, (double) threads * perThread / elapsed);
+        System.out.printf("%d transfers, %d rejected; deposited %s, withdrew %s%n", transfers.sum(),
+                rejected.sum(), Money.format(deposited.sum()), Money.format(withdrawn.sum()));
+        System.out.printf("Total balance %s, expected %s%n", Money.format(actual), Money.format(expected));
+        if (actual != expected) {
+            failed = true;
+            System.out.println("FAIL: money was not conserved (off by " + Money.format(actual - expected) + ")");
+        }
+        if (!totals.matches() || totals.getCounted().getTotalBalance() != actual) {
+            failed = true;
+            System.out.println("FAIL: running totals do not match the accounts");
+        }
+        System.out.println(failed ? "FAILED" : "PASSED");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static void count(TransactionResult result, LongAdder accepted, long amount, LongAdder rejected) {
+        if (result == TransactionResult.SUCCESS) {
+            accepted.add(amount);
+        } else {
+            rejected.increment();
+        }
+    }
+}
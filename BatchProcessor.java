@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Non-interactive ingestion of deposits, withdrawals and transfers. Each line is
+//   deposit,ACC000000001,25.00
+//   withdraw,ACC000000001,10
+//   transfer,ACC000000001,ACC000000002,5.50
+// optionally followed by a request key, e.g. deposit,ACC000000001,25.00,payroll-2025-01-0042;
+// re-running a file then skips every keyed line that was already applied.
+// Blank lines and lines starting with '#' are skipped. Fields are located by
+// scanning for commas in place; no regex or per-field strings are involved.
+// Operations are journaled as they are applied and made durable once per batch.
+public class BatchProcessor {
+    public static final int BATCH_SIZE = 10_000;
+
+    private final AccountRegistry accounts;
+    private final Runnable commit;
+    private final Map<TransactionResult, Integer> rejects = new EnumMap<>(TransactionResult.class);
+    private int malformed;
+    private long applied;
+    private long duplicates;
+
+    // commit runs after every batch and must make the journaled operations durable
+    public BatchProcessor(AccountRegistry accounts, Runnable commit) {
+        this.accounts = accounts;
+        this.commit = commit;
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        long started = System.nanoTime();
+        long lineNumber = 0;
+        long records = 0;
+        int inBatch = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            records++;
+            process(line, lineNumber);
+            if (++inBatch == BATCH_SIZE) {
+                commit.run();
+                inBatch = 0;
+            }
+        }
+        if (inBatch > 0) {
+            commit.run();
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long rejected = records - applied - duplicates;
+        System.out.printf("Batch complete: %d records, %d applied, %d rejected in %.2f s (%.0f records/s)%n",
+                records, applied, rejected, seconds, seconds > 0 ? records / seconds : 0.0);
+        if (duplicates > 0) {
+            System.out.println("  skipped as already applied: " + duplicates);
+        }
+        if (malformed > 0) {
+            System.out.println("  malformed record: " + malformed);
+        }
+        for (Map.Entry<TransactionResult, Integer> entry : rejects.entrySet()) {
+            System.out.println("  " + entry.getKey().getDescription() + ": " + entry.getValue());
+        }
+    }
+
+    private void process(String line, long lineNumber) {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        if (second < 0) {
+            rejectMalformed(lineNumber);
+            return;
+        }
+        int third = line.indexOf(',', second + 1);
+        int fourth = third < 0 ? -1 : line.indexOf(',', third + 1);
+
+        TransactionResult result;
+        try {
+            if (isOperation(line, first, "deposit") && fourth < 0) {
+                BankAccount account = lookup(line, first + 1, second);
+                long amount = Money.parse(line, second + 1, third < 0 ? line.length() : third);
+                result = account == null ? TransactionResult.UNKNOWN_ACCOUNT
+                        : account.deposit(amount, requestKey(line, third));
+            } else if (isOperation(line, first, "withdraw") && fourth < 0) {
+                BankAccount account = lookup(line, first + 1, second);
+                long amount = Money.parse(line, second + 1, third < 0 ? line.length() : third);
+                result = account == null ? TransactionResult.UNKNOWN_ACCOUNT
+                        : account.withdraw(amount, requestKey(line, third));
+            } else if (isOperation(line, first, "transfer") && third >= 0
+                    && (fourth < 0 || line.indexOf(',', fourth + 1) < 0)) {
+                BankAccount sender = lookup(line, first + 1, second);
+                BankAccount recipient = lookup(line, second + 1, third);
+                long amount = Money.parse(line, third + 1, fourth < 0 ? line.length() : fourth);
+                result = sender == null || recipient == null ? TransactionResult.UNKNOWN_ACCOUNT
+                        : sender.transfer(recipient, amount, requestKey(line, fourth));
+            } else {
+                rejectMalformed(lineNumber);
+                return;
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            // NumberFormatException for amounts, IllegalArgumentException for over-long keys
+            rejectMalformed(lineNumber);
+            return;
+        }
+
+        if (result == TransactionResult.SUCCESS) {
+            applied++;
+        } else if (result == TransactionResult.DUPLICATE) {
+            duplicates++;
+        } else {
+            rejects.merge(result, 1, Integer::sum);
+            System.out.println("Line " + lineNumber + " rejected: " + result.getDescription());
+        }
+    }
+
+    private void rejectMalformed(long lineNumber) {
+        malformed++;
+        System.out.println("Line " + lineNumber + " rejected: malformed record");
+    }
+
+    // The optional last field after the comma at separator, or null
+    private static String requestKey(String line, int separator) {
+        return separator < 0 ? null : line.substring(separator + 1);
+    }
+
+    private static boolean isOperation(String line, int end, String operation) {
+        return end == operation.length() && line.regionMatches(true, 0, operation, 0, end);
+    }
+
+    private BankAccount lookup(String line, int start, int end) {
+        long key = AccountRegistry.toKey(line, start, end);
+        return key >= 0 ? accounts.get(key) : accounts.get(line.substring(start, end));
+    }
+}
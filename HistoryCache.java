@@ -0,0 +1,57 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The accounts whose full history is currently held in memory because it was
+// recently viewed, least recently viewed first. The cache is bounded by the
+// total number of entries those histories hold (1,000,000 unless
+// -Dbank.historyCacheEntries=N); going over evicts the oldest ones, which keep
+// only the entries the store does not have yet and reload the rest on demand.
+final class HistoryCache {
+    static final long DEFAULT_MAX_ENTRIES = 1_000_000;
+
+    private final long maxEntries;
+    private final LinkedHashMap<BankAccount, Integer> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long entries;
+
+    HistoryCache(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    // Marks account's history of the given size as just viewed; the caller holds the account's lock
+    synchronized void touch(BankAccount account, int size) {
+        Integer previous = resident.put(account, size);
+        entries += size - (previous == null ? 0 : previous);
+        if (entries > maxEntries) {
+            evict(account);
+        }
+    }
+
+    synchronized boolean contains(BankAccount account) {
+        return resident.containsKey(account);
+    }
+
+    synchronized int size() {
+        return resident.size();
+    }
+
+    // Evicts from the least recently viewed end. An account whose lock is busy is skipped
+    // rather than waited for, since the caller already holds an account lock.
+    private void evict(BankAccount keep) {
+        Iterator<Map.Entry<BankAccount, Integer>> it = resident.entrySet().iterator();
+        while (entries > maxEntries && it.hasNext()) {
+            Map.Entry<BankAccount, Integer> entry = it.next();
+            BankAccount account = entry.getKey();
+            if (account == keep || !AccountLocks.tryLock(account)) {
+                continue;
+            }
+            try {
+                account.releaseStoredHistory();
+            } finally {
+                AccountLocks.unlock(account);
+            }
+            entries -= entry.getValue();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.List;
+
+// One page of history entries, newest first. Pass getNextCursor() back to
+// read the following (older) page; history is append-only, so a cursor stays
+// valid while new entries arrive and pages never repeat or skip entries.
+public final class HistoryPage {
+    // Cursor for the newest page
+    public static final int FIRST = Integer.MAX_VALUE;
+    // Returned as the next cursor once there are no older matching entries
+    public static final int END = 0;
+
+    private final List<String> entries;
+    private final int nextCursor;
+
+    HistoryPage(List<String> entries, int nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    // Formatted like the transaction history menu: "yyyy-MM-dd HH:mm:ss - description"
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    public int getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != END;
+    }
+}
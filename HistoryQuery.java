@@ -0,0 +1,58 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+// Filter for reading a slice of an account's history: a time range
+// [from, to) in epoch nanos and a set of entry types. Instances are
+// immutable; between() and withTypes() return narrowed copies.
+public final class HistoryQuery {
+    private static final int ALL_TYPES = -1;
+    private static final HistoryQuery ALL = new HistoryQuery(Long.MIN_VALUE, Long.MAX_VALUE, ALL_TYPES);
+
+    private final long fromNanos;
+    private final long toNanos;
+    private final int typeMask;
+
+    private HistoryQuery(long fromNanos, long toNanos, int typeMask) {
+        this.fromNanos = fromNanos;
+        this.toNanos = toNanos;
+        this.typeMask = typeMask;
+    }
+
+    public static HistoryQuery all() {
+        return ALL;
+    }
+
+    // Entries recorded at or after fromNanos and before toNanos
+    public HistoryQuery between(long fromNanos, long toNanos) {
+        return new HistoryQuery(fromNanos, toNanos, typeMask);
+    }
+
+    // Whole local days: from the start of first through the end of last
+    public HistoryQuery between(LocalDate first, LocalDate last) {
+        ZoneId zone = ZoneId.systemDefault();
+        long from = first == null ? Long.MIN_VALUE : first.atStartOfDay(zone).toEpochSecond() * 1_000_000_000L;
+        long to = last == null ? Long.MAX_VALUE : last.plusDays(1).atStartOfDay(zone).toEpochSecond() * 1_000_000_000L;
+        return between(from, to);
+    }
+
+    // Only entries of the given TransactionHistory types
+    public HistoryQuery withTypes(byte... types) {
+        int mask = 0;
+        for (byte type : types) {
+            mask |= 1 << type;
+        }
+        return new HistoryQuery(fromNanos, toNanos, mask);
+    }
+
+    public long getFromNanos() {
+        return fromNanos;
+    }
+
+    public long getToNanos() {
+        return toNanos;
+    }
+
+    public boolean matches(byte type) {
+        return (typeMask & (1 << type)) != 0;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Remembers the request keys of recent successful deposits, withdrawals and
+// transfers so a retried request is answered without being applied twice.
+// Keys are scoped to the account the money leaves (or enters, for deposits)
+// and kept for a time window, oldest evicted first, up to a fixed number of
+// entries. A key is only consumed by an operation that succeeded; a rejected
+// request can be retried with the same key.
+//
+// Keyed operations are journaled together with their key, so the window
+// survives a crash. At each checkpoint the keys covered by it are written to
+// a snapshot file, [magic][version][count] then [lsn][time][fingerprint][id]
+// per entry and a trailing CRC32, replaced atomically.
+public class IdempotencyCache {
+    public static final int MAX_KEY_LENGTH = 64;
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final long DEFAULT_WINDOW_NANOS = 24L * 60 * 60 * 1_000_000_000L;
+
+    private static final int MAGIC = 0x42414E52; // "BANR"
+    private static final int FORMAT_VERSION = 1;
+
+    private final int capacity;
+    private final long windowNanos;
+    // Insertion order is time order, so expired entries are always at the head
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long newest = Long.MIN_VALUE;
+
+    private static final class Entry {
+        final long fingerprint;
+        final long at;
+        final long lsn;
+
+        Entry(long fingerprint, long at, long lsn) {
+            this.fingerprint = fingerprint;
+            this.at = at;
+            this.lsn = lsn;
+        }
+    }
+
+    public IdempotencyCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW_NANOS);
+    }
+
+    public IdempotencyCache(int capacity, long windowNanos) {
+        this.capacity = capacity;
+        this.windowNanos = windowNanos;
+    }
+
+    // Identifies a client key within the account it was used on
+    static String requestId(String accountNumber, String key) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Request keys must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        return accountNumber + '/' + key;
+    }
+
+    // Distinguishes a retry from a different operation sent with the same key
+    static long fingerprint(byte operation, long amount, long counterparty) {
+        long h = operation;
+        h = h * 0x9E3779B97F4A7C15L + amount;
+        h = h * 0x9E3779B97F4A7C15L + counterparty;
+        return h ^ (h >>> 31);
+    }
+
+    // Outcome of an earlier request with this id (DUPLICATE, or KEY_REUSED when the
+    // operation differs), or null when the request is new and should be applied
+    public synchronized TransactionResult check(String requestId, long fingerprint, long now) {
+        evictExpired(now);
+        Entry entry = entries.get(requestId);
+        if (entry == null) {
+            return null;
+        }
+        return entry.fingerprint == fingerprint ? TransactionResult.DUPLICATE : TransactionResult.KEY_REUSED;
+    }
+
+    // Records a successful request; lsn is its journal record (0 when not journaled)
+    public synchronized void remember(String requestId, long fingerprint, long at, long lsn) {
+        newest = Math.max(newest, at);
+        evictExpired(newest);
+        if (at < newest - windowNanos) {
+            return;
+        }
+        entries.put(requestId, new Entry(fingerprint, at, lsn));
+        if (entries.size() > capacity) {
+            Iterator<Entry> eldest = entries.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext() && it.next().at < now - windowNanos) {
+            it.remove();
+        }
+    }
+
+    // Writes every entry whose journal record is at or before upToLsn
+    public void save(Path file, long upToLsn) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        synchronized (this) {
+            evictExpired(TransactionHistory.currentTimeNanos());
+            int count = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.lsn <= upToLsn) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.lsn <= upToLsn) {
+                    out.writeLong(entry.lsn);
+                    out.writeLong(entry.at);
+                    out.writeLong(entry.fingerprint);
+                    out.writeUTF(e.getKey());
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Restores the entries saved by the last checkpoint that are still inside the window
+    public void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 4 * Integer.BYTES || in.readInt() != MAGIC) {
+            throw new IOException(file + " is not a request key file");
+        } else if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported request key file version");
+        }
+        int body = bytes.length - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, body);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, body, Integer.BYTES).getInt()) {
+            throw new IOException(file + " is corrupt");
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long lsn = in.readLong();
+            long at = in.readLong();
+            long fingerprint = in.readLong();
+            remember(in.readUTF(), fingerprint, at, lsn);
+        }
+        evictExpired(TransactionHistory.currentTimeNanos());
+    }
+}
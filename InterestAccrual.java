@@ -0,0 +1,96 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// End-of-day interest posting. Every account is credited independently at its
+// own rate with half-even rounding and one timestamp for the whole run, so a
+// fork/join run over index ranges produces exactly the same credits and
+// totals as a sequential pass.
+public class InterestAccrual {
+    private static final int SPLIT_THRESHOLD = 4096;
+
+    private InterestAccrual() {
+    }
+
+    public static Summary run(List<BankAccount> accounts, int days, boolean parallel) {
+        long at = TransactionHistory.currentTimeNanos();
+        Accrue task = new Accrue(accounts, 0, accounts.size(), days, at);
+        return parallel ? ForkJoinPool.commonPool().invoke(task) : task.accrue();
+    }
+
+    public static final class Summary {
+        private long credited;
+        private long savingsInterest;
+        private long checkingInterest;
+
+        public long getAccountsCredited() {
+            return credited;
+        }
+
+        public long getSavingsInterest() {
+            return savingsInterest;
+        }
+
+        public long getCheckingInterest() {
+            return checkingInterest;
+        }
+
+        public long getTotalInterest() {
+            return savingsInterest + checkingInterest;
+        }
+
+        private Summary add(Summary other) {
+            credited += other.credited;
+            savingsInterest += other.savingsInterest;
+            checkingInterest += other.checkingInterest;
+            return this;
+        }
+    }
+
+    private static final class Accrue extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<BankAccount> accounts;
+        private final int from;
+        private final int to;
+        private final int days;
+        private final long at;
+
+        Accrue(List<BankAccount> accounts, int from, int to, int days, long at) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+            this.days = days;
+            this.at = at;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                return accrue();
+            }
+            int middle = (from + to) >>> 1;
+            Accrue left = new Accrue(accounts, from, middle, days, at);
+            left.fork();
+            Summary right = new Accrue(accounts, middle, to, days, at).compute();
+            return left.join().add(right);
+        }
+
+        Summary accrue() {
+            Summary summary = new Summary();
+            for (int i = from; i < to; i++) {
+                BankAccount account = accounts.get(i);
+                long interest = account.postInterest(days, at);
+                if (interest > 0) {
+                    summary.credited++;
+                    if ("Savings".equalsIgnoreCase(account.getAccountType())) {
+                        summary.savingsInterest += interest;
+                    } else {
+                        summary.checkingInterest += interest;
+                    }
+                }
+            }
+            return summary;
+        }
+    }
+}
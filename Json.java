@@ -0,0 +1,179 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough JSON for the HTTP API: request bodies are flat objects whose
+// values are read back as their source text (so amounts like 25.50 reach
+// Money.parse without passing through a double), and responses are built
+// from key/value pairs.
+final class Json {
+    private Json() {
+    }
+
+    // Parses {"key": value, ...} where each value is a string, number, boolean or null
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        int[] pos = {skipSpace(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = readString(text, pos);
+                expect(text, pos, ':');
+                fields.put(key, peek(text, pos) == '"' ? readString(text, pos) : readLiteral(text, pos));
+                char next = peek(text, pos);
+                pos[0]++;
+                if (next == '}') {
+                    break;
+                } else if (next != ',') {
+                    throw new IllegalArgumentException("Expected ',' or '}' at " + (pos[0] - 1));
+                }
+            }
+        }
+        if (skipSpace(text, pos[0]) != text.length()) {
+            throw new IllegalArgumentException("Unexpected content after object");
+        }
+        return fields;
+    }
+
+    // Builds an object from alternating keys and values. Strings are quoted,
+    // lists become arrays of strings, anything else is written as-is.
+    static String object(Object... keysAndValues) {
+        StringBuilder sb = new StringBuilder(64).append('{');
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            quote(sb, (String) keysAndValues[i]).append(':');
+            Object value = keysAndValues[i + 1];
+            if (value instanceof String) {
+                quote(sb, (String) value);
+            } else if (value instanceof List) {
+                sb.append('[');
+                List<?> items = (List<?>) value;
+                for (int j = 0; j < items.size(); j++) {
+                    if (j > 0) {
+                        sb.append(',');
+                    }
+                    quote(sb, String.valueOf(items.get(j)));
+                }
+                sb.append(']');
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private static StringBuilder quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    private static String readString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        int i = pos[0];
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+            if (c == '"') {
+                pos[0] = i;
+                return sb.toString();
+            } else if (c != '\\') {
+                sb.append(c);
+            } else if (i < text.length()) {
+                char escaped = text.charAt(i++);
+                switch (escaped) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        if (i + 4 > text.length()) {
+                            throw new IllegalArgumentException("Bad unicode escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                        i += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static String readLiteral(String text, int[] pos) {
+        int start = pos[0];
+        int end = start;
+        while (end < text.length() && ",} \t\r\n".indexOf(text.charAt(end)) < 0) {
+            end++;
+        }
+        if (end == start) {
+            throw new IllegalArgumentException("Missing value at " + start);
+        }
+        pos[0] = end;
+        return text.substring(start, end);
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    // Skips whitespace and returns the next character without consuming it
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipSpace(text, pos[0]);
+        if (pos[0] >= text.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return text.charAt(pos[0]);
+    }
+
+    private static int skipSpace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free latency histogram in nanoseconds with HDR-style log-linear buckets:
+// every power of two is split into 32 linear sub-buckets, so any recorded value
+// is reported within about 3% while the whole range up to Long.MAX_VALUE fits
+// in 1920 counters. Recording is a bucket increment plus a few adders, with no
+// allocation; readers take a snapshot that may straddle concurrent updates.
+// Operations can also be counted without being timed, so callers may time a
+// sample of calls while the count stays exact; percentiles come from the sample.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Counts an operation that was not timed
+    public void increment() {
+        operations.increment();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        operations.increment();
+        counts.incrementAndGet(indexOf(nanos));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long timed = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            timed += copy[i];
+        }
+        return new Snapshot(copy, operations.sum(), timed, total.sum(), max.get());
+    }
+
+    // Values below 64 get a bucket each; above that, the top six bits select the bucket
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Largest value that lands in the given bucket
+    static long highestValueIn(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long timed;
+        private final long total;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long timed, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.timed = timed;
+            this.total = total;
+            this.max = max;
+        }
+
+        // Every operation, timed or not
+        public long getCount() {
+            return count;
+        }
+
+        // Largest timed value
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return timed == 0 ? 0 : (double) total / timed;
+        }
+
+        // Value at or below which the given fraction of timed operations fall, e.g. 0.99
+        public long percentile(double fraction) {
+            if (timed == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * timed));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
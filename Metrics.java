@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide instrumentation for account operations and persistence: a
+// latency histogram per operation, reject counts by reason, and bytes written
+// by the journal and the account store. Everything is lock-free and recording
+// never allocates. Reading the clock costs more than recording, so account
+// operations are all counted but only one call in SAMPLE_EVERY (16 unless
+// -Dbank.metrics.sampleEvery=N, rounded down to a power of two) is timed;
+// persistence is always timed. Run with -Dbank.metrics.disabled=true to compile
+// it out of the hot paths, e.g. to compare BankBenchmark results with and
+// without it. Published over JMX as bank:type=Metrics and as a periodic text dump.
+public final class Metrics {
+    static final boolean ENABLED = !Boolean.getBoolean("bank.metrics.disabled");
+    static final int SAMPLE_EVERY =
+            Integer.highestOneBit(Math.max(1, Integer.getInteger("bank.metrics.sampleEvery", 16)));
+    private static final int SAMPLE_MASK = SAMPLE_EVERY - 1;
+    private static final long UNTIMED = Long.MIN_VALUE;
+
+    static final LatencyHistogram DEPOSIT = new LatencyHistogram("deposit");
+    static final LatencyHistogram WITHDRAW = new LatencyHistogram("withdraw");
+    static final LatencyHistogram TRANSFER = new LatencyHistogram("transfer");
+    static final LatencyHistogram VERIFY_PIN = new LatencyHistogram("verifyPin");
+    static final LatencyHistogram SAVE = new LatencyHistogram("saveAccountsToFile");
+    static final LatencyHistogram LOAD = new LatencyHistogram("loadAccountsFromFile");
+    static final LatencyHistogram JOURNAL_FSYNC = new LatencyHistogram("journal fsync");
+    static final LatencyHistogram STORE_FSYNC = new LatencyHistogram("store fsync");
+    static final LatencyHistogram HISTORY_LOAD = new LatencyHistogram("history load");
+    private static final List<LatencyHistogram> HISTOGRAMS = Arrays.asList(
+            DEPOSIT, WITHDRAW, TRANSFER, VERIFY_PIN, SAVE, LOAD, JOURNAL_FSYNC, STORE_FSYNC, HISTORY_LOAD);
+
+    private static final TransactionResult[] RESULTS = TransactionResult.values();
+    private static final LongAdder[] REJECTS = new LongAdder[RESULTS.length];
+    static final LongAdder JOURNAL_BYTES = new LongAdder();
+    static final LongAdder STORE_BYTES = new LongAdder();
+
+    static {
+        for (int i = 0; i < REJECTS.length; i++) {
+            REJECTS[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Start time for record(); free when metrics are disabled
+    static long start() {
+        return ENABLED ? System.nanoTime() : UNTIMED;
+    }
+
+    // Like start(), but only a sampled call reads the clock; the rest are just counted
+    static long sample() {
+        return ENABLED && (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0 ? System.nanoTime() : UNTIMED;
+    }
+
+    static void record(LatencyHistogram histogram, long started) {
+        if (!ENABLED) {
+            return;
+        }
+        if (started == UNTIMED) {
+            histogram.increment();
+        } else {
+            histogram.record(System.nanoTime() - started);
+        }
+    }
+
+    // Records the operation and, when it was rejected, the reason; returns result
+    static TransactionResult record(LatencyHistogram histogram, long started, TransactionResult result) {
+        if (ENABLED) {
+            record(histogram, started);
+            if (result != TransactionResult.SUCCESS) {
+                REJECTS[result.ordinal()].increment();
+            }
+        }
+        return result;
+    }
+
+    static void addBytes(LongAdder counter, long bytes) {
+        if (ENABLED) {
+            counter.add(bytes);
+        }
+    }
+
+    // Read-only view for JConsole and other JMX clients
+    public interface MetricsMXBean {
+        // Operation counts, rejects and duplicates by reason, and bytes written
+        Map<String, Long> getCounters();
+
+        // "<operation> p50" / "p90" / "p99" / "max" in microseconds
+        Map<String, Double> getLatencyMicros();
+
+        String getReport();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> counters = new LinkedHashMap<>();
+            for (LatencyHistogram histogram : HISTOGRAMS) {
+                counters.put(histogram.getName(), histogram.snapshot().getCount());
+            }
+            for (TransactionResult result : RESULTS) {
+                counters.put("rejected: " + result.getDescription(), REJECTS[result.ordinal()].sum());
+            }
+            counters.remove("rejected: " + TransactionResult.SUCCESS.getDescription());
+            counters.put("journal bytes", JOURNAL_BYTES.sum());
+            counters.put("store bytes", STORE_BYTES.sum());
+            return counters;
+        }
+
+        @Override
+        public Map<String, Double> getLatencyMicros() {
+            Map<String, Double> latencies = new LinkedHashMap<>();
+            for (LatencyHistogram histogram : HISTOGRAMS) {
+                LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+                latencies.put(histogram.getName() + " p50", micros(snapshot.percentile(0.50)));
+                latencies.put(histogram.getName() + " p90", micros(snapshot.percentile(0.90)));
+                latencies.put(histogram.getName() + " p99", micros(snapshot.percentile(0.99)));
+                latencies.put(histogram.getName() + " max", micros(snapshot.getMax()));
+            }
+            return latencies;
+        }
+
+        @Override
+        public String getReport() {
+            return report();
+        }
+    }
+
+    // Registers the JMX bean and rewrites file with report() every intervalSeconds and at exit
+    static void publish(Path file, long intervalSeconds) {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("bank:type=Metrics"));
+        } catch (JMException e) {
+            System.out.println("Metrics are not available over JMX: " + e.getMessage());
+        }
+
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(file)));
+    }
+
+    private static synchronized void dump(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, report().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Metrics are best effort; the next dump tries again
+        }
+    }
+
+    static String report() {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("Bank metrics at ")
+                .append(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")))
+                .append("\n\n");
+        sb.append(String.format("%-22s %10s %10s %10s %10s %10s %10s%n",
+                "operation (us)", "count", "mean", "p50", "p90", "p99", "max"));
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            LatencyHistogram.Snapshot s = histogram.snapshot();
+            sb.append(String.format("%-22s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", histogram.getName(),
+                    s.getCount(), s.getMean() / 1000, micros(s.percentile(0.50)), micros(s.percentile(0.90)),
+                    micros(s.percentile(0.99)), micros(s.getMax())));
+        }
+
+        sb.append("\nRejected or deduplicated operations\n");
+        for (TransactionResult result : RESULTS) {
+            long rejects = REJECTS[result.ordinal()].sum();
+            if (rejects > 0) {
+                sb.append(String.format("  %-28s %10d%n", result.getDescription(), rejects));
+            }
+        }
+
+        sb.append("\nPersistence\n");
+        sb.append(String.format("  %-28s %10d%n", "journal bytes written", JOURNAL_BYTES.sum()));
+        sb.append(String.format("  %-28s %10d%n", "store bytes written", STORE_BYTES.sum()));
+        return sb.toString();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
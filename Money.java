@@ -0,0 +1,112 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Fixed-point money helpers. Amounts are long cents and interest rates are
+// int basis points (hundredths of a percent), so ledger arithmetic is exact
+// primitive math; conversions to and from text only happen at the edges.
+public final class Money {
+    public static final long CENTS_PER_DOLLAR = 100;
+    private static final long BPS_DAYS_PER_YEAR = 10_000L * 365;
+
+    private Money() {
+    }
+
+    // Parses "12", "12.5", "-0.75" etc. into cents; more than two decimals is rejected
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    // Parses text[start, end) without copying it out first
+    public static long parse(CharSequence text, int start, int end) {
+        int length = end;
+        int i = start;
+        boolean negative = false;
+        if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        if (i == length) {
+            throw new NumberFormatException("Not an amount: " + text.subSequence(start, end));
+        }
+
+        long units = 0;
+        int fractionDigits = -1;
+        long fraction = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (fractionDigits < 0) {
+                    units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+                } else if (++fractionDigits <= 2) {
+                    fraction = fraction * 10 + (c - '0');
+                } else {
+                    throw new NumberFormatException("Too many decimal places: " + text.subSequence(start, end));
+                }
+            } else {
+                throw new NumberFormatException("Not an amount: " + text.subSequence(start, end));
+            }
+        }
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+        long cents = Math.addExact(Math.multiplyExact(units, CENTS_PER_DOLLAR), fraction);
+        return negative ? -cents : cents;
+    }
+
+    // Converts a legacy double amount, rounding half-up to the nearest cent
+    public static long fromDouble(double amount) {
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    // Converts a legacy percentage such as 2.5 into basis points
+    public static int rateFromPercent(double percent) {
+        return Math.toIntExact(fromDouble(percent));
+    }
+
+    // Formats cents as a plain two-decimal amount, e.g. 1234.50
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    // Same as format, written into an existing builder
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        long abs = Math.abs(cents);
+        if (cents < 0) {
+            sb.append('-');
+        }
+        sb.append(abs / CENTS_PER_DOLLAR).append('.');
+        long fraction = abs % CENTS_PER_DOLLAR;
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    // Basis points have the same two-decimal scale as cents: 250 -> "2.50"
+    public static String formatRate(int basisPoints) {
+        return format(basisPoints);
+    }
+
+    // Simple interest on balance for the given days on an actual/365 basis.
+    // Fractions of a cent are rounded half-even so repeated accruals do not drift.
+    public static long interest(long balanceCents, int rateBasisPoints, int days) {
+        long numerator;
+        try {
+            numerator = Math.multiplyExact(Math.multiplyExact(balanceCents, rateBasisPoints), days);
+        } catch (ArithmeticException e) {
+            return BigDecimal.valueOf(balanceCents)
+                    .multiply(BigDecimal.valueOf((long) rateBasisPoints * days))
+                    .divide(BigDecimal.valueOf(BPS_DAYS_PER_YEAR), 0, RoundingMode.HALF_EVEN)
+                    .longValueExact();
+        }
+        long quotient = numerator / BPS_DAYS_PER_YEAR;
+        long remainder = numerator % BPS_DAYS_PER_YEAR;
+        long twice = Math.abs(remainder) * 2;
+        if (twice > BPS_DAYS_PER_YEAR || (twice == BPS_DAYS_PER_YEAR && (quotient & 1) != 0)) {
+            quotient += numerator < 0 ? -1 : 1;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// A PIN as stored: PBKDF2-HMAC-SHA256 over the PIN's digits with a random
+// 16-byte salt. The cost is the iteration count, 10,000 unless
+// -Dbank.pin.iterations=N; each hash keeps its own count, so raising it only
+// affects PINs hashed from then on (logins rehash older ones). Encoded as a
+// fixed [iterations][salt][hash] block of ENCODED_SIZE bytes.
+//
+// PINs written before hashing existed are carried as legacy hashes with zero
+// iterations that hold the plain PIN until they are upgraded.
+final class PinHash {
+    static final int ENCODED_SIZE = Integer.BYTES + 16 + 32;
+    static final int ITERATIONS = Math.max(1, Integer.getInteger("bank.pin.iterations", 10_000));
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final SecureRandom random = new SecureRandom();
+    // Looking the algorithm up costs more than a cheap hash; factories are not thread-safe
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    });
+
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PinHash(int iterations, byte[] salt, byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    // Expensive by design; see PinVerifier for running it off the caller's thread
+    static PinHash create(int pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new PinHash(ITERATIONS, salt, derive(pin, salt, ITERATIONS));
+    }
+
+    static PinHash legacy(int pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        ByteBuffer.wrap(salt).putInt(pin);
+        return new PinHash(0, salt, new byte[HASH_BYTES]);
+    }
+
+    boolean matches(int pin) {
+        if (isLegacy()) {
+            return pin == legacyPin();
+        }
+        return MessageDigest.isEqual(hash, derive(pin, salt, iterations));
+    }
+
+    boolean isLegacy() {
+        return iterations == 0;
+    }
+
+    // False for legacy PINs and hashes made with a lower cost than the current one
+    boolean isCurrent() {
+        return iterations >= ITERATIONS;
+    }
+
+    int legacyPin() {
+        return ByteBuffer.wrap(salt).getInt();
+    }
+
+    private static byte[] derive(int pin, byte[] salt, int iterations) {
+        char[] digits = Integer.toString(pin).toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(digits, salt, iterations, HASH_BYTES * Byte.SIZE);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(digits, '\0');
+        }
+    }
+
+    void write(ByteBuffer out) {
+        out.putInt(iterations).put(salt).put(hash);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(iterations);
+        out.write(salt);
+        out.write(hash);
+    }
+
+    static PinHash read(ByteBuffer in) {
+        int iterations = in.getInt();
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] hash = new byte[HASH_BYTES];
+        in.get(salt).get(hash);
+        return new PinHash(iterations, salt, hash);
+    }
+
+    static PinHash read(DataInput in) throws IOException {
+        int iterations = in.readInt();
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] hash = new byte[HASH_BYTES];
+        in.readFully(salt);
+        in.readFully(hash);
+        return new PinHash(iterations, salt, hash);
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Runs PIN hashing on a small dedicated pool instead of the caller's thread.
+// Hashing is deliberately slow, so capping it at half the cores (or
+// -Dbank.pin.threads=N) keeps a burst of logins from taking the CPU away from
+// deposits and transfers, and the bounded queue turns an overload into a
+// quick BUSY rather than an ever-growing backlog.
+final class PinVerifier {
+    private static final int THREADS = Math.max(1, Integer.getInteger("bank.pin.threads",
+            Runtime.getRuntime().availableProcessors() / 2));
+    private static final int QUEUE_CAPACITY = Integer.getInteger("bank.pin.queue", 4096);
+
+    private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), task -> {
+                Thread thread = new Thread(task, "pin-verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private PinVerifier() {
+    }
+
+    // Completes exceptionally with RejectedExecutionException when the queue is full
+    static CompletableFuture<Boolean> matches(PinHash stored, int pin) {
+        if (stored.isLegacy()) {
+            return CompletableFuture.completedFuture(stored.matches(pin)); // No hashing to offload
+        }
+        return submit(() -> stored.matches(pin));
+    }
+
+    static CompletableFuture<PinHash> hash(int pin) {
+        return submit(() -> PinHash.create(pin));
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, pool);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Account store split into AccountRegistry.SHARDS independent AccountStores,
+// one slot file and one history file per shard (bank_accounts-03.db,
+// bank_history-03.db), with accounts assigned by the registry's key hash.
+// Shards are loaded concurrently, and a checkpoint writes, in parallel, only
+// the shards that hold changed accounts; the others are not touched at all.
+//
+// Each shard header carries the LSN of the last checkpoint that wrote it, so
+// shards disagree about how much of the journal they cover. Replay starts
+// from the oldest of them (per-account LSNs skip what a newer shard already
+// holds) and new LSNs continue after the newest.
+public class ShardedAccountStore {
+    private final AccountStore[] shards = new AccountStore[AccountRegistry.SHARDS];
+    private final ExecutorService workers;
+
+    public ShardedAccountStore(String slotFile, String historyFile) throws IOException {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new AccountStore(shardFile(slotFile, i), shardFile(historyFile, i), i, shards.length);
+        }
+        int threads = Math.min(shards.length, Runtime.getRuntime().availableProcessors());
+        workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "store-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // bank_accounts.db -> bank_accounts-07.db
+    static String shardFile(String file, int shard) {
+        int dot = file.lastIndexOf('.');
+        String suffix = String.format("-%02d", shard);
+        return dot < 0 ? file + suffix : file.substring(0, dot) + suffix + file.substring(dot);
+    }
+
+    // Removes every shard file, e.g. those left by a migration that did not finish
+    public static void deleteFiles(String slotFile, String historyFile) throws IOException {
+        for (int i = 0; i < AccountRegistry.SHARDS; i++) {
+            Files.deleteIfExists(Paths.get(shardFile(slotFile, i)));
+            Files.deleteIfExists(Paths.get(shardFile(slotFile, i) + ".dw"));
+            Files.deleteIfExists(Paths.get(shardFile(historyFile, i)));
+        }
+    }
+
+    public boolean isEmpty() {
+        for (AccountStore shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (AccountStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    // Every journal record up to this LSN is reflected in every shard
+    public long checkpointLsn() {
+        long lsn = Long.MAX_VALUE;
+        for (AccountStore shard : shards) {
+            lsn = Math.min(lsn, shard.checkpointLsn());
+        }
+        return lsn;
+    }
+
+    // The LSN of the most recent checkpoint of any shard; the journal must not reuse LSNs up to it
+    public long newestCheckpointLsn() {
+        long lsn = 0;
+        for (AccountStore shard : shards) {
+            lsn = Math.max(lsn, shard.checkpointLsn());
+        }
+        return lsn;
+    }
+
+    public AccountRegistry load() throws IOException {
+        AccountRegistry accounts = new AccountRegistry(size());
+        List<Future<?>> loads = new ArrayList<>(shards.length);
+        for (AccountStore shard : shards) {
+            loads.add(workers.submit(() -> {
+                shard.load(accounts);
+                return null;
+            }));
+        }
+        await(loads);
+        return accounts;
+    }
+
+    // Groups the changed accounts by shard and checkpoints each affected shard
+    public void checkpoint(List<BankAccount> changed, long lsn) throws IOException {
+        List<List<BankAccount>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (BankAccount account : changed) {
+            long key = AccountRegistry.toKey(account.getAccountNumber());
+            if (key < 0) {
+                throw new IOException("Account number " + account.getAccountNumber() + " cannot be stored");
+            }
+            byShard.get(AccountRegistry.shardOf(key)).add(account);
+        }
+        List<Future<?>> writes = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            AccountStore shard = shards[i];
+            List<BankAccount> accounts = byShard.get(i);
+            if (!accounts.isEmpty()) {
+                writes.add(workers.submit(() -> {
+                    shard.checkpoint(accounts, lsn);
+                    return null;
+                }));
+            }
+        }
+        await(writes);
+    }
+
+    // Waits for every task, then rethrows the first failure
+    private static void await(List<Future<?>> tasks) throws IOException {
+        Throwable failure = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                failure = failure != null ? failure : e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : e;
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    public void close() throws IOException {
+        workers.shutdown();
+        for (AccountStore shard : shards) {
+            shard.close();
+        }
+    }
+}
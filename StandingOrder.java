@@ -0,0 +1,129 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+// A recurring transfer of a fixed amount between two accounts. Payment n is due
+// at the first payment's date and time plus n periods in the local time zone,
+// so a monthly order started on the 31st is paid on the last day of shorter
+// months and returns to the 31st afterwards. A payment the payer cannot cover
+// is retried a few times before it is skipped; see StandingOrderScheduler.
+//
+// Mutated only by StandingOrderScheduler, under its lock.
+public class StandingOrder {
+    public enum Frequency {
+        DAILY, WEEKLY, MONTHLY;
+
+        ZonedDateTime plus(ZonedDateTime first, long periods) {
+            switch (this) {
+                case DAILY:
+                    return first.plusDays(periods);
+                case WEEKLY:
+                    return first.plusWeeks(periods);
+                default:
+                    return first.plusMonths(periods);
+            }
+        }
+    }
+
+    private final long id;
+    private final String fromAccount;
+    private final String toAccount;
+    private final long amount;
+    private final Frequency frequency;
+    private final long firstDueMillis;
+    long payment;       // index of the next payment to make
+    int attempts;       // failed attempts at that payment
+    long retryAtMillis; // when to try it again, 0 unless it failed
+    long paid;
+    long skipped;       // payments given up after every retry failed
+    private long nextFireMillis;
+
+    StandingOrder(long id, String fromAccount, String toAccount, long amount, Frequency frequency,
+            long firstDueMillis) {
+        this.id = id;
+        this.fromAccount = fromAccount;
+        this.toAccount = toAccount;
+        this.amount = amount;
+        this.frequency = frequency;
+        this.firstDueMillis = firstDueMillis;
+        this.nextFireMillis = firstDueMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getFromAccount() {
+        return fromAccount;
+    }
+
+    public String getToAccount() {
+        return toAccount;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public Frequency getFrequency() {
+        return frequency;
+    }
+
+    public long getPaid() {
+        return paid;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    // Scheduled time of the given payment
+    public long dueMillis(long payment) {
+        ZonedDateTime first = Instant.ofEpochMilli(firstDueMillis).atZone(ZoneId.systemDefault());
+        return frequency.plus(first, payment).toInstant().toEpochMilli();
+    }
+
+    // When the scheduler should next act on this order: the next payment, or its retry
+    public long nextFireMillis() {
+        return nextFireMillis;
+    }
+
+    // Recomputes nextFireMillis after payment or retryAtMillis changed
+    void reschedule() {
+        nextFireMillis = retryAtMillis != 0 ? retryAtMillis : dueMillis(payment);
+    }
+
+    // Idempotency key of the next payment: a payment made again after a crash is recognized as DUPLICATE
+    String requestKey() {
+        return "SO" + id + "-" + payment;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(id);
+        out.writeUTF(fromAccount);
+        out.writeUTF(toAccount);
+        out.writeLong(amount);
+        out.writeByte(frequency.ordinal());
+        out.writeLong(firstDueMillis);
+        out.writeLong(payment);
+        out.writeInt(attempts);
+        out.writeLong(retryAtMillis);
+        out.writeLong(paid);
+        out.writeLong(skipped);
+    }
+
+    static StandingOrder read(DataInput in) throws IOException {
+        StandingOrder order = new StandingOrder(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(),
+                Frequency.values()[in.readByte()], in.readLong());
+        order.payment = in.readLong();
+        order.attempts = in.readInt();
+        order.retryAtMillis = in.readLong();
+        order.paid = in.readLong();
+        order.skipped = in.readLong();
+        order.reschedule();
+        return order;
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+// Makes the payments of standing orders. Orders wait in a priority queue by
+// the time they next need attention. Every TICK_SECONDS a scheduler thread
+// takes the due orders off the queue, up to BATCH_SIZE at a time, makes the
+// batch's transfers in parallel on the fork/join pool, commits them together
+// and rewrites the schedule file. An order still due after its payment, as
+// when payments were missed while the bank was not running, is taken again by
+// the next batch, so catching up makes every missed payment in order.
+//
+// A payment the payer cannot cover, or between locked accounts, is retried
+// every 60 minutes up to 3 times (-Dbank.standingOrders.retryMinutes=N and
+// -Dbank.standingOrders.retries=N) and then skipped. Each payment carries a
+// request key made of its order and payment number, so a payment made just
+// before a crash that lost its schedule update comes back DUPLICATE when it is
+// made again after the restart (within the request key window). A batch whose
+// payments or commit fail is queued again unchanged and retried on the next tick.
+//
+// Schedule file: [magic][version][next id][count] then each order and a
+// trailing CRC32, replaced atomically.
+public class StandingOrderScheduler {
+    public static final int BATCH_SIZE = 10_000;
+    private static final long TICK_SECONDS = 1;
+    private static final long RETRY_MILLIS =
+            TimeUnit.MINUTES.toMillis(Long.getLong("bank.standingOrders.retryMinutes", 60));
+    private static final int MAX_RETRIES = Integer.getInteger("bank.standingOrders.retries", 3);
+
+    private static final int MAGIC = 0x42414E4F; // "BANO"
+    private static final int FORMAT_VERSION = 1;
+
+    private final AccountRegistry accounts;
+    private final Path file;
+    private final Runnable commit;
+    private final PriorityQueue<StandingOrder> queue = new PriorityQueue<>(
+            Comparator.comparingLong(StandingOrder::nextFireMillis).thenComparingLong(StandingOrder::getId));
+    private final Map<Long, StandingOrder> orders = new HashMap<>();
+    private final Map<String, List<StandingOrder>> byPayer = new HashMap<>();
+    private final Object saveLock = new Object(); // Keeps concurrent saves from sharing the temp file
+    private long nextId = 1;
+    private ScheduledExecutorService timer;
+
+    // commit must make journaled operations durable; it runs after every batch of payments
+    public StandingOrderScheduler(AccountRegistry accounts, Path file, Runnable commit) throws IOException {
+        this.accounts = accounts;
+        this.file = file;
+        this.commit = commit;
+        load();
+    }
+
+    // Starts making payments in the background, beginning with any that were missed
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "standing-orders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::runDue, 0, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // The caller checks both accounts exist and differ and that amount is positive
+    public StandingOrder create(String fromAccount, String toAccount, long amount, StandingOrder.Frequency frequency,
+            long firstDueMillis) throws IOException {
+        StandingOrder order;
+        synchronized (this) {
+            order = new StandingOrder(nextId++, fromAccount, toAccount, amount, frequency, firstDueMillis);
+            add(order);
+        }
+        save();
+        return order;
+    }
+
+    // False if there is no such order paid from fromAccount
+    public boolean cancel(long id, String fromAccount) throws IOException {
+        synchronized (this) {
+            StandingOrder order = orders.get(id);
+            if (order == null || !order.getFromAccount().equals(fromAccount)) {
+                return false;
+            }
+            orders.remove(id);
+            byPayer.get(fromAccount).remove(order);
+            queue.remove(order); // Not queued while its payment is being made; finish() then drops it
+        }
+        save();
+        return true;
+    }
+
+    // In the order they were set up
+    public synchronized List<StandingOrder> ordersFrom(String accountNumber) {
+        return new ArrayList<>(byPayer.getOrDefault(accountNumber, Collections.emptyList()));
+    }
+
+    public synchronized int size() {
+        return orders.size();
+    }
+
+    // Makes every payment due by now, batch by batch; returns the number of payments attempted
+    public long runDue() {
+        long attempted = 0;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                List<StandingOrder> batch = takeDue(now);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                TransactionResult[] results = new TransactionResult[batch.size()];
+                try {
+                    IntStream.range(0, batch.size()).parallel().forEach(i -> results[i] = pay(batch.get(i)));
+                    commit.run();
+                } catch (RuntimeException e) {
+                    // E.g. the journal failed. Payments the batch did make come back DUPLICATE when retried.
+                    System.out.println("Error making standing order payments: " + e);
+                    requeue(batch);
+                    break; // Retried on the next tick
+                }
+                finish(batch, results, now);
+                save();
+                attempted += batch.size();
+            }
+        } catch (IOException e) {
+            System.out.println("Error saving standing orders: " + e.getMessage());
+        }
+        return attempted;
+    }
+
+    private void add(StandingOrder order) {
+        orders.put(order.getId(), order);
+        byPayer.computeIfAbsent(order.getFromAccount(), k -> new ArrayList<>(1)).add(order);
+        queue.add(order);
+    }
+
+    private synchronized List<StandingOrder> takeDue(long now) {
+        List<StandingOrder> batch = new ArrayList<>();
+        while (batch.size() < BATCH_SIZE && !queue.isEmpty() && queue.peek().nextFireMillis() <= now) {
+            batch.add(queue.poll());
+        }
+        return batch;
+    }
+
+    private TransactionResult pay(StandingOrder order) {
+        BankAccount from = accounts.get(order.getFromAccount());
+        BankAccount to = accounts.get(order.getToAccount());
+        if (from == null || to == null) {
+            return TransactionResult.UNKNOWN_ACCOUNT;
+        }
+        try {
+            return from.transfer(to, order.getAmount(), order.requestKey());
+        } catch (ArithmeticException e) {
+            return TransactionResult.INVALID_AMOUNT; // The recipient's balance would overflow
+        }
+    }
+
+    // Moves each order on to its next payment, or schedules a retry, and queues it again
+    private synchronized void finish(List<StandingOrder> batch, TransactionResult[] results, long now) {
+        for (int i = 0; i < batch.size(); i++) {
+            StandingOrder order = batch.get(i);
+            TransactionResult result = results[i];
+            if (result == TransactionResult.SUCCESS || result == TransactionResult.DUPLICATE) {
+                order.paid++;
+                nextPayment(order);
+            } else if ((result == TransactionResult.INSUFFICIENT_FUNDS || result == TransactionResult.ACCOUNT_LOCKED)
+                    && order.attempts < MAX_RETRIES) {
+                order.attempts++;
+                order.retryAtMillis = now + RETRY_MILLIS;
+            } else {
+                order.skipped++;
+                nextPayment(order);
+            }
+            order.reschedule();
+            if (orders.get(order.getId()) == order) { // Unless cancelled meanwhile
+                queue.add(order);
+            }
+        }
+    }
+
+    // Queues a failed batch again as it was taken, unless cancelled meanwhile
+    private synchronized void requeue(List<StandingOrder> batch) {
+        for (StandingOrder order : batch) {
+            if (orders.get(order.getId()) == order) {
+                queue.add(order);
+            }
+        }
+    }
+
+    private static void nextPayment(StandingOrder order) {
+        order.payment++;
+        order.attempts = 0;
+        order.retryAtMillis = 0;
+    }
+
+    private void save() throws IOException {
+        synchronized (saveLock) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            synchronized (this) {
+                out.writeLong(nextId);
+                out.writeInt(orders.size());
+                for (StandingOrder order : orders.values()) {
+                    order.write(out);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 4 * Integer.BYTES + Long.BYTES || in.readInt() != MAGIC) {
+            throw new IOException(file + " is not a standing order file");
+        } else if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported standing order file version");
+        }
+        int body = bytes.length - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, body);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, body, Integer.BYTES).getInt()) {
+            throw new IOException(file + " is corrupt");
+        }
+        nextId = in.readLong();
+        int count = in.readInt();
+        List<StandingOrder> loaded = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            loaded.add(StandingOrder.read(in));
+        }
+        loaded.sort(Comparator.comparingLong(StandingOrder::getId));
+        for (StandingOrder order : loaded) {
+            add(order);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+
+// Streams an account statement as CSV, oldest entry first:
+//   date,type,amount,counterparty,description
+//   2025-01-31 09:15:02,transfer_out,-46.00,ACC000000002,Transfer to ACC000000002: -$46.00
+// Rows are formatted into one reused builder and encoded into one reused
+// buffer that is written to the channel whenever it fills, so memory use
+// does not depend on the length of the statement. The account's lock is
+// taken for a slice of entries at a time rather than for the whole export,
+// and entries added after the export starts are not included. Entries only in
+// the store are read a slice at a time too, never loaded as a whole.
+public final class StatementExport {
+    private static final int ENTRIES_PER_SLICE = 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String HEADER = "date,type,amount,counterparty,description\n";
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final WritableByteChannel out;
+    private final StringBuilder text = new StringBuilder(ENTRIES_PER_SLICE * 96);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final ZoneRules zone = ZoneId.systemDefault().getRules();
+    private long rows;
+    // Consecutive entries often share a second; its formatted date is kept for reuse
+    private long cachedSecond = Long.MIN_VALUE;
+    private final StringBuilder cachedDate = new StringBuilder(19);
+
+    private StatementExport(WritableByteChannel out) {
+        this.out = out;
+    }
+
+    // Writes the entries matching query to out and returns the number of rows written
+    public static long writeCsv(BankAccount account, HistoryQuery query, WritableByteChannel out)
+            throws IOException {
+        StatementExport export = new StatementExport(out);
+        export.text.append(HEADER);
+        int[] range = account.historyRange(query);
+        int end = range[1];
+        for (int next = range[0]; next < end; ) {
+            int from = next;
+            int to = Math.min(end, from + ENTRIES_PER_SLICE);
+            next = account.readHistorySlice(from, to,
+                    (history, base) -> export.appendSlice(history, base, query, from, to));
+            export.flush(false);
+        }
+        export.flush(true);
+        return export.rows;
+    }
+
+    // Formats matching entries in [from, to), entry i being at index i - base; returns to
+    private int appendSlice(TransactionHistory history, int base, HistoryQuery query, int from, int to) {
+        for (int i = from - base; i < to - base; i++) {
+            byte type = history.typeAt(i);
+            if (query.matches(type)) {
+                appendRow(history, i, type);
+            }
+        }
+        return to;
+    }
+
+    private void appendRow(TransactionHistory history, int index, byte type) {
+        appendDate(history.timeAt(index));
+        text.append(',').append(TransactionHistory.typeName(type)).append(',');
+        long amount = history.amountAt(index);
+        switch (type) {
+            case TransactionHistory.WITHDRAWAL:
+            case TransactionHistory.TRANSFER_OUT:
+                Money.appendTo(text, -amount);
+                break;
+            case TransactionHistory.OPENED:
+            case TransactionHistory.DEPOSIT:
+            case TransactionHistory.TRANSFER_IN:
+            case TransactionHistory.INTEREST:
+                Money.appendTo(text, amount);
+                break;
+            default:
+                // Notes, PIN and rate changes move no money
+        }
+        text.append(',');
+        long counterparty = history.counterpartyAt(index);
+        if (counterparty >= 0) {
+            text.append(AccountRegistry.toAccountNumber(counterparty));
+        }
+        text.append(',');
+        int start = text.length();
+        history.describeTo(text, index);
+        quoteIfNeeded(start);
+        text.append('\n');
+        rows++;
+    }
+
+    private void appendDate(long epochNanos) {
+        long second = Math.floorDiv(epochNanos, 1_000_000_000L);
+        if (second != cachedSecond) {
+            Instant instant = Instant.ofEpochSecond(second);
+            cachedDate.setLength(0);
+            DATE_FORMAT.formatTo(LocalDateTime.ofInstant(instant, zone.getOffset(instant)), cachedDate);
+            cachedSecond = second;
+        }
+        text.append(cachedDate);
+    }
+
+    // Quotes the field that starts at start if it contains a separator, quote or line break
+    private void quoteIfNeeded(int start) {
+        boolean quote = false;
+        for (int i = start; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return;
+        }
+        for (int i = text.length() - 1; i >= start; i--) {
+            if (text.charAt(i) == '"') {
+                text.insert(i, '"');
+            }
+        }
+        text.insert(start, '"').append('"');
+    }
+
+    // Encodes the pending text into the buffer, writing the buffer out each time it fills
+    private void flush(boolean endOfInput) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        text.setLength(0);
+        if (endOfInput) {
+            while (encoder.flush(buffer).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Append-ordered, columnar transaction history. Each entry is a timestamp
+// (epoch nanos), a type code, an amount in cents and a counterparty account
+// key, stored in parallel primitive arrays that grow in fixed-size chunks.
+// Entries are appended in time order, so reads never need to sort and time
+// ranges can be found by binary search.
+public class TransactionHistory implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final byte NOTE = 0;
+    public static final byte OPENED = 1;
+    public static final byte DEPOSIT = 2;
+    public static final byte WITHDRAWAL = 3;
+    public static final byte TRANSFER_OUT = 4;
+    public static final byte TRANSFER_IN = 5;
+    public static final byte PIN_CHANGED = 6;
+    public static final byte RATE_CHANGED = 7;
+    public static final byte INTEREST = 8;
+
+    public static final long NO_COUNTERPARTY = -1;
+
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int FIRST_CHUNK_SIZE = 4;
+    private static final String LEGACY_OPENED = "Account opened with initial balance: ";
+    private static final String LEGACY_DEPOSIT = "Deposit: +$";
+    private static final String LEGACY_WITHDRAWAL = "Withdrawal: -$";
+    private static final String LEGACY_TRANSFER_OUT = "Transfer to ";
+    private static final String LEGACY_TRANSFER_IN = "Transfer from ";
+    private static final String LEGACY_RATE = "Interest rate changed to ";
+    private static final String[] TYPE_NAMES = {
+            "note", "opened", "deposit", "withdrawal", "transfer_out", "transfer_in",
+            "pin_changed", "rate_changed", "interest"};
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private transient long[][] times;
+    private transient byte[][] types;
+    private transient long[][] amounts;
+    private transient long[][] counterparties;
+    private transient int size;
+    // Free text of legacy entries that could not be mapped to a type; NOTE entries index into it
+    private List<String> notes;
+
+    public TransactionHistory() {
+        allocate(FIRST_CHUNK_SIZE);
+    }
+
+    public static long currentTimeNanos() {
+        return System.currentTimeMillis() * 1_000_000L;
+    }
+
+    // Records an entry; timestamps never go backwards so the columns stay sorted
+    public void append(long epochNanos, byte type, long amount, long counterparty) {
+        if (size > 0 && epochNanos < timeAt(size - 1)) {
+            epochNanos = timeAt(size - 1);
+        }
+        int chunk = size >>> CHUNK_SHIFT;
+        int offset = size & CHUNK_MASK;
+        if (chunk == times.length) {
+            growChunks();
+        }
+        if (times[chunk] == null) {
+            allocateChunk(chunk, CHUNK_SIZE);
+        } else if (offset == times[chunk].length) {
+            growFirstChunk();
+        }
+        times[chunk][offset] = epochNanos;
+        types[chunk][offset] = type;
+        amounts[chunk][offset] = amount;
+        counterparties[chunk][offset] = counterparty;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long timeAt(int index) {
+        return times[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public byte typeAt(int index) {
+        return types[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public long amountAt(int index) {
+        return amounts[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public long counterpartyAt(int index) {
+        return counterparties[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    // Index of the first entry at or after epochNanos (size() if there is none)
+    public int lowerBound(long epochNanos) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeAt(mid) < epochNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public String describe(int index) {
+        return describeTo(new StringBuilder(48), index).toString();
+    }
+
+    // Appends the description of an entry, so callers formatting many entries can reuse one builder
+    public StringBuilder describeTo(StringBuilder sb, int index) {
+        long amount = amountAt(index);
+        switch (typeAt(index)) {
+            case OPENED:
+                return Money.appendTo(sb.append("Account opened with initial balance: "), amount);
+            case DEPOSIT:
+                return Money.appendTo(sb.append("Deposit: +$"), amount);
+            case WITHDRAWAL:
+                return Money.appendTo(sb.append("Withdrawal: -$"), amount);
+            case TRANSFER_OUT:
+                return Money.appendTo(sb.append("Transfer to ").append(counterpartyName(index)).append(": -$"), amount);
+            case TRANSFER_IN:
+                return Money.appendTo(sb.append("Transfer from ").append(counterpartyName(index)).append(": +$"),
+                        amount);
+            case PIN_CHANGED:
+                return sb.append("PIN changed");
+            case RATE_CHANGED:
+                return Money.appendTo(sb.append("Interest rate changed to "), amount).append('%');
+            case INTEREST:
+                return Money.appendTo(sb.append("Interest credited: +$"), amount);
+            default:
+                return sb.append(noteAt(index));
+        }
+    }
+
+    // Short lowercase name of a type code, as used in statements and history filters
+    public static String typeName(byte type) {
+        return type >= 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : "unknown";
+    }
+
+    // Type code for a name returned by typeName, or -1
+    public static byte typeOf(String name) {
+        for (byte type = 0; type < TYPE_NAMES.length; type++) {
+            if (TYPE_NAMES[type].equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return -1;
+    }
+
+    // "yyyy-MM-dd HH:mm:ss - description", as shown in the transaction history menu
+    public String format(int index) {
+        long nanos = timeAt(index);
+        Instant instant = Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                Math.floorMod(nanos, 1_000_000_000L));
+        return DATE_FORMAT.format(instant.atZone(ZoneId.systemDefault())) + " - " + describe(index);
+    }
+
+    private String counterpartyName(int index) {
+        long key = counterpartyAt(index);
+        return key < 0 ? "unknown account" : AccountRegistry.toAccountNumber(key);
+    }
+
+    // Converts the free-text Map history kept by earlier versions
+    static TransactionHistory fromLegacy(Map<LocalDateTime, String> legacy) {
+        TransactionHistory history = new TransactionHistory();
+        ZoneId zone = ZoneId.systemDefault();
+        legacy.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> {
+                    Instant instant = entry.getKey().atZone(zone).toInstant();
+                    long nanos = instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+                    history.appendLegacy(nanos, entry.getValue());
+                });
+        return history;
+    }
+
+    private void appendLegacy(long epochNanos, String description) {
+        try {
+            if (description.startsWith(LEGACY_OPENED)) {
+                append(epochNanos, OPENED, legacyAmount(description, LEGACY_OPENED.length()), NO_COUNTERPARTY);
+                return;
+            } else if (description.startsWith(LEGACY_DEPOSIT)) {
+                append(epochNanos, DEPOSIT, legacyAmount(description, LEGACY_DEPOSIT.length()), NO_COUNTERPARTY);
+                return;
+            } else if (description.startsWith(LEGACY_WITHDRAWAL)) {
+                append(epochNanos, WITHDRAWAL, legacyAmount(description, LEGACY_WITHDRAWAL.length()),
+                        NO_COUNTERPARTY);
+                return;
+            } else if (description.startsWith(LEGACY_TRANSFER_OUT) && description.contains(": -$")) {
+                int split = description.indexOf(": -$");
+                long key = AccountRegistry.toKey(description.substring(LEGACY_TRANSFER_OUT.length(), split));
+                if (key >= 0) {
+                    append(epochNanos, TRANSFER_OUT, legacyAmount(description, split + 4), key);
+                    return;
+                }
+            } else if (description.startsWith(LEGACY_TRANSFER_IN) && description.contains(": +$")) {
+                int split = description.indexOf(": +$");
+                long key = AccountRegistry.toKey(description.substring(LEGACY_TRANSFER_IN.length(), split));
+                if (key >= 0) {
+                    append(epochNanos, TRANSFER_IN, legacyAmount(description, split + 4), key);
+                    return;
+                }
+            } else if (description.equals("PIN changed")) {
+                append(epochNanos, PIN_CHANGED, 0, NO_COUNTERPARTY);
+                return;
+            } else if (description.startsWith(LEGACY_RATE) && description.endsWith("%")) {
+                String rate = description.substring(LEGACY_RATE.length(), description.length() - 1);
+                append(epochNanos, RATE_CHANGED, Money.fromDouble(Double.parseDouble(rate)), NO_COUNTERPARTY);
+                return;
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            // Fall through and keep the original text
+        }
+        appendNote(epochNanos, description);
+    }
+
+    void appendNote(long epochNanos, String text) {
+        if (notes == null) {
+            notes = new ArrayList<>();
+        }
+        notes.add(text);
+        append(epochNanos, NOTE, notes.size() - 1, NO_COUNTERPARTY);
+    }
+
+    // Free text of a NOTE entry
+    String noteAt(int index) {
+        return notes.get((int) amountAt(index));
+    }
+
+    // Appends the entries of other from index 'from' onwards
+    void appendFrom(TransactionHistory other, int from) {
+        appendRange(other, from, other.size);
+    }
+
+    // Appends the entries of other in [from, to)
+    void appendRange(TransactionHistory other, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (other.typeAt(i) == NOTE) {
+                appendNote(other.timeAt(i), other.noteAt(i));
+            } else {
+                append(other.timeAt(i), other.typeAt(i), other.amountAt(i), other.counterpartyAt(i));
+            }
+        }
+    }
+
+    // Legacy amounts were printed with Double.toString, e.g. 1200000.0 or 1.0E7
+    private static long legacyAmount(String description, int start) {
+        return Money.fromDouble(Double.parseDouble(description.substring(start)));
+    }
+
+    private void allocate(int firstChunkSize) {
+        times = new long[1][];
+        types = new byte[1][];
+        amounts = new long[1][];
+        counterparties = new long[1][];
+        allocateChunk(0, firstChunkSize);
+    }
+
+    private void allocateChunk(int chunk, int capacity) {
+        times[chunk] = new long[capacity];
+        types[chunk] = new byte[capacity];
+        amounts[chunk] = new long[capacity];
+        counterparties[chunk] = new long[capacity];
+    }
+
+    // Only the first chunk starts small (most accounts have few entries) and doubles up to CHUNK_SIZE
+    private void growFirstChunk() {
+        int capacity = Math.min(CHUNK_SIZE, times[0].length * 2);
+        times[0] = Arrays.copyOf(times[0], capacity);
+        types[0] = Arrays.copyOf(types[0], capacity);
+        amounts[0] = Arrays.copyOf(amounts[0], capacity);
+        counterparties[0] = Arrays.copyOf(counterparties[0], capacity);
+    }
+
+    private void growChunks() {
+        int chunks = times.length * 2;
+        times = Arrays.copyOf(times, chunks);
+        types = Arrays.copyOf(types, chunks);
+        amounts = Arrays.copyOf(amounts, chunks);
+        counterparties = Arrays.copyOf(counterparties, chunks);
+    }
+
+    // Histories are only deserialized from snapshots written before the binary account store
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        allocate(Math.max(FIRST_CHUNK_SIZE, Math.min(count, CHUNK_SIZE)));
+        for (int i = 0; i < count; i++) {
+            append(in.readLong(), in.readByte(), in.readLong(), in.readLong());
+        }
+    }
+}
@@ -0,0 +1,622 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead log of account mutations. The file starts with a
+// [magic][version] header followed by records of the form
+// [length][lsn][type][timestamp][payload][crc32]; records are buffered and
+// made durable with a single fsync for everything appended so far.
+public class TransactionLog {
+    private static final int MAGIC = 0x42414E4B; // "BANK"
+    private static final int FORMAT_VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final byte UNLOCK = 8;
+    private static final byte OPEN = 10;
+    private static final byte DEPOSIT = 11;
+    private static final byte WITHDRAWAL = 12;
+    private static final byte TRANSFER = 13;
+    private static final byte RATE_CHANGE = 14;
+    private static final byte INTEREST = 15;
+    // Deposit, withdrawal and transfer records followed by the request's idempotency key
+    private static final byte KEYED_DEPOSIT = 16;
+    private static final byte KEYED_WITHDRAWAL = 17;
+    private static final byte KEYED_TRANSFER = 18;
+    // PINs are written as PinHash blocks; a rehash replaces the hash of an unchanged PIN
+    private static final byte HASHED_OPEN = 19;
+    private static final byte HASHED_PIN_CHANGE = 20;
+    private static final byte PIN_REHASH = 21;
+    private static final byte LOCK = 22;
+
+    // Record types written before amounts became long cents; still replayed
+    private static final byte LEGACY_OPEN = 1;
+    private static final byte LEGACY_DEPOSIT = 2;
+    private static final byte LEGACY_WITHDRAWAL = 3;
+    private static final byte LEGACY_TRANSFER = 4;
+    private static final byte LEGACY_RATE_CHANGE = 9;
+    // Plain PINs, and the per-attempt records kept before the attempt limiter
+    private static final byte PLAIN_PIN_CHANGE = 5;
+    private static final byte PIN_FAILURE = 6;
+    private static final byte PIN_RESET = 7;
+
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int TRAILER_SIZE = Integer.BYTES;
+
+    private final Path path;
+    private FileChannel channel; // Replaced when reset() compacts the log
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(4096);
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(body);
+    private final CRC32 crc = new CRC32();
+    private long nextLsn = 1;
+    private long durableLsn;
+    private boolean flushing;
+    private final Set<BankAccount> dirty = new LinkedHashSet<>();
+    // Headerless files come from before the format version existed and store local date-times
+    private boolean legacyFormat;
+    // Set for the duration of replay()
+    private long replayAfterLsn;
+    private IdempotencyCache replayRequests;
+
+    public TransactionLog(String fileName) throws IOException {
+        this.path = Paths.get(fileName);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            writeFileHeader();
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            legacyFormat = header.remaining() < FILE_HEADER_SIZE || header.getInt() != MAGIC;
+            if (!legacyFormat && header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported transaction log version");
+            }
+        }
+    }
+
+    // A legacy log must be folded into a checkpoint before new records are appended to it
+    public boolean isLegacyFormat() {
+        return legacyFormat;
+    }
+
+    public synchronized long lastLsn() {
+        return nextLsn - 1;
+    }
+
+    // Makes new records numbered after lsn, which a store checkpoint may already have claimed
+    public synchronized void continueAfter(long lsn) {
+        if (nextLsn <= lsn) {
+            nextLsn = lsn + 1;
+            durableLsn = Math.max(durableLsn, lsn);
+        }
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    // Re-applies every intact record newer than afterLsn to the given accounts,
+    // skipping accounts whose own LSN shows they already include it, and puts the
+    // keys of keyed records (older ones too) back into requests. A torn or
+    // corrupt tail (crash mid-append) is cut off at the last good record.
+    public synchronized int replay(long afterLsn, AccountRegistry accounts, IdempotencyCache requests)
+            throws IOException {
+        replayAfterLsn = afterLsn;
+        replayRequests = requests;
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        channel.read(data, 0);
+        data.flip();
+        long goodEnd = legacyFormat ? 0 : FILE_HEADER_SIZE;
+        data.position((int) goodEnd);
+
+        int applied = 0;
+        long lastLsn = afterLsn;
+        while (data.remaining() >= HEADER_SIZE) {
+            int length = data.getInt(data.position());
+            if (length <= 0 || data.remaining() < HEADER_SIZE + length + TRAILER_SIZE) {
+                break;
+            }
+            byte[] record = new byte[length];
+            data.position(data.position() + HEADER_SIZE);
+            data.get(record);
+            int storedCrc = data.getInt();
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != storedCrc) {
+                break;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            long lsn = in.readLong();
+            if (apply(lsn, in, accounts)) {
+                applied++;
+            }
+            lastLsn = Math.max(lastLsn, lsn);
+            goodEnd = data.position();
+        }
+
+        if (goodEnd < channel.size()) {
+            channel.truncate(goodEnd);
+            channel.force(true);
+        }
+        channel.position(goodEnd);
+        nextLsn = lastLsn + 1;
+        durableLsn = lastLsn;
+        replayRequests = null;
+        return applied;
+    }
+
+    private boolean apply(long lsn, DataInputStream in, AccountRegistry accounts) throws IOException {
+        byte type = in.readByte();
+        long at = in.readLong();
+        if (legacyFormat) {
+            at = fromLegacyTimestamp(at);
+        }
+        BankAccount account;
+        String number;
+        switch (type) {
+            case HASHED_OPEN:
+            case OPEN:
+            case LEGACY_OPEN:
+                String name = in.readUTF();
+                number = in.readUTF();
+                String accountType = in.readUTF();
+                long initialBalance = type != LEGACY_OPEN ? in.readLong() : Money.fromDouble(in.readDouble());
+                PinHash pin = type == HASHED_OPEN ? PinHash.read(in) : PinHash.legacy(in.readInt());
+                int rate = type != LEGACY_OPEN ? in.readInt() : Money.rateFromPercent(in.readDouble());
+                if (lsn <= replayAfterLsn || accounts.get(number) != null) {
+                    return false; // Already in the store
+                }
+                account = new BankAccount(name, number, accountType, initialBalance, pin, rate, at, false);
+                accounts.add(account);
+                return pending(account, lsn);
+            case DEPOSIT:
+            case KEYED_DEPOSIT:
+            case LEGACY_DEPOSIT:
+                number = in.readUTF();
+                account = accounts.get(number);
+                long deposit = type != LEGACY_DEPOSIT ? in.readLong() : Money.fromDouble(in.readDouble());
+                if (type == KEYED_DEPOSIT) {
+                    rememberKey(number, in.readUTF(), TransactionHistory.DEPOSIT, deposit,
+                            TransactionHistory.NO_COUNTERPARTY, at, lsn);
+                }
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyDeposit(deposit, at);
+                return true;
+            case WITHDRAWAL:
+            case KEYED_WITHDRAWAL:
+            case LEGACY_WITHDRAWAL:
+                number = in.readUTF();
+                account = accounts.get(number);
+                long withdrawal = type != LEGACY_WITHDRAWAL ? in.readLong() : Money.fromDouble(in.readDouble());
+                if (type == KEYED_WITHDRAWAL) {
+                    rememberKey(number, in.readUTF(), TransactionHistory.WITHDRAWAL, withdrawal,
+                            TransactionHistory.NO_COUNTERPARTY, at, lsn);
+                }
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyWithdrawal(withdrawal, at);
+                return true;
+            case TRANSFER:
+            case KEYED_TRANSFER:
+            case LEGACY_TRANSFER:
+                // Each side is checked on its own: a checkpoint may have stored one account but not the other
+                number = in.readUTF();
+                String recipientNumber = in.readUTF();
+                BankAccount sender = accounts.get(number);
+                BankAccount recipient = accounts.get(recipientNumber);
+                long amount = type != LEGACY_TRANSFER ? in.readLong() : Money.fromDouble(in.readDouble());
+                if (type == KEYED_TRANSFER) {
+                    rememberKey(number, in.readUTF(), TransactionHistory.TRANSFER_OUT, amount,
+                            AccountRegistry.toKey(recipientNumber), at, lsn);
+                }
+                boolean debited = pending(sender, lsn);
+                if (debited) {
+                    sender.applyTransferOut(recipient, amount, at);
+                }
+                boolean credited = pending(recipient, lsn);
+                if (credited) {
+                    recipient.applyTransferIn(sender, amount, at);
+                }
+                return debited || credited;
+            case HASHED_PIN_CHANGE:
+            case PLAIN_PIN_CHANGE:
+                account = accounts.get(in.readUTF());
+                PinHash newPin = type == HASHED_PIN_CHANGE ? PinHash.read(in) : PinHash.legacy(in.readInt());
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyPinChange(newPin, at);
+                return true;
+            case PIN_REHASH:
+                account = accounts.get(in.readUTF());
+                PinHash rehashed = PinHash.read(in);
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyPinRehash(rehashed);
+                return true;
+            case LOCK:
+                account = accounts.get(in.readUTF());
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyLock();
+                return true;
+            case PIN_FAILURE:
+                account = accounts.get(in.readUTF());
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyFailedPin();
+                return true;
+            case PIN_RESET:
+                account = accounts.get(in.readUTF());
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyPinReset();
+                return true;
+            case UNLOCK:
+                account = accounts.get(in.readUTF());
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyUnlock();
+                return true;
+            case RATE_CHANGE:
+            case LEGACY_RATE_CHANGE:
+                account = accounts.get(in.readUTF());
+                int newRate = type == RATE_CHANGE ? in.readInt() : Money.rateFromPercent(in.readDouble());
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyInterestRate(newRate, at);
+                return true;
+            case INTEREST:
+                account = accounts.get(in.readUTF());
+                long interest = in.readLong();
+                if (!pending(account, lsn)) {
+                    return false;
+                }
+                account.applyInterest(interest, at);
+                return true;
+            default:
+                throw new IOException("Unknown log record type: " + type);
+        }
+    }
+
+    // Every account carries the LSN of the last record applied to it, so replay
+    // skips records its stored state already includes and is safe to repeat
+    private boolean pending(BankAccount account, long lsn) {
+        if (lsn <= replayAfterLsn || account.lastLsn >= lsn) {
+            return false;
+        }
+        account.lastLsn = lsn;
+        dirty.add(account);
+        return true;
+    }
+
+    private void rememberKey(String accountNumber, String key, byte operation, long amount, long counterparty,
+            long at, long lsn) {
+        if (replayRequests != null) {
+            replayRequests.remember(IdempotencyCache.requestId(accountNumber, key),
+                    IdempotencyCache.fingerprint(operation, amount, counterparty), at, lsn);
+        }
+    }
+
+    // Each log method returns the record's LSN and marks the accounts it touches as dirty.
+    // A non-null requestKey is written into the record so retries stay deduplicated after a restart.
+    public synchronized long logOpen(BankAccount account, long initialBalance, PinHash pin, long at) {
+        try {
+            long lsn = begin(HASHED_OPEN, at);
+            out.writeUTF(account.getAccountHolderName());
+            out.writeUTF(account.getAccountNumber());
+            out.writeUTF(account.getAccountType());
+            out.writeLong(initialBalance);
+            pin.write(out);
+            out.writeInt(account.getInterestRate());
+            end();
+            dirty.add(account);
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long logDeposit(BankAccount account, long amount, long at, String requestKey) {
+        return logAmount(requestKey == null ? DEPOSIT : KEYED_DEPOSIT, account, amount, at, requestKey);
+    }
+
+    public synchronized long logWithdrawal(BankAccount account, long amount, long at, String requestKey) {
+        return logAmount(requestKey == null ? WITHDRAWAL : KEYED_WITHDRAWAL, account, amount, at, requestKey);
+    }
+
+    public synchronized long logInterest(BankAccount account, long amount, long at) {
+        return logAmount(INTEREST, account, amount, at, null);
+    }
+
+    public synchronized long logTransfer(BankAccount from, BankAccount to, long amount, long at,
+            String requestKey) {
+        try {
+            long lsn = begin(requestKey == null ? TRANSFER : KEYED_TRANSFER, at);
+            out.writeUTF(from.getAccountNumber());
+            out.writeUTF(to.getAccountNumber());
+            out.writeLong(amount);
+            if (requestKey != null) {
+                out.writeUTF(requestKey);
+            }
+            end();
+            dirty.add(from);
+            dirty.add(to);
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long logPinChange(BankAccount account, PinHash newPin, long at) {
+        return logPinHash(HASHED_PIN_CHANGE, account, newPin, at);
+    }
+
+    public synchronized long logPinRehash(BankAccount account, PinHash rehashed) {
+        return logPinHash(PIN_REHASH, account, rehashed, TransactionHistory.currentTimeNanos());
+    }
+
+    public synchronized long logLock(BankAccount account) {
+        return logMarker(LOCK, account);
+    }
+
+    public synchronized long logUnlock(BankAccount account) {
+        return logMarker(UNLOCK, account);
+    }
+
+    public synchronized long logInterestRate(BankAccount account, int rate, long at) {
+        try {
+            long lsn = begin(RATE_CHANGE, at);
+            out.writeUTF(account.getAccountNumber());
+            out.writeInt(rate);
+            end();
+            dirty.add(account);
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long logAmount(byte type, BankAccount account, long amount, long at, String requestKey) {
+        try {
+            long lsn = begin(type, at);
+            out.writeUTF(account.getAccountNumber());
+            out.writeLong(amount);
+            if (requestKey != null) {
+                out.writeUTF(requestKey);
+            }
+            end();
+            dirty.add(account);
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long logPinHash(byte type, BankAccount account, PinHash pin, long at) {
+        try {
+            long lsn = begin(type, at);
+            out.writeUTF(account.getAccountNumber());
+            pin.write(out);
+            end();
+            dirty.add(account);
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long logMarker(byte type, BankAccount account) {
+        try {
+            long lsn = begin(type, TransactionHistory.currentTimeNanos());
+            out.writeUTF(account.getAccountNumber());
+            end();
+            dirty.add(account);
+            return lsn;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Accounts changed since the last checkpoint, in the order they were first touched
+    public synchronized List<BankAccount> drainDirty() {
+        List<BankAccount> changed = new ArrayList<>(dirty);
+        dirty.clear();
+        return changed;
+    }
+
+    // Forces an account into the next checkpoint, e.g. after loading it from a legacy snapshot
+    public synchronized void markDirty(BankAccount account) {
+        dirty.add(account);
+    }
+
+    private long begin(byte type, long at) throws IOException {
+        body.reset();
+        long lsn = nextLsn++;
+        out.writeLong(lsn);
+        out.writeByte(type);
+        out.writeLong(at);
+        return lsn;
+    }
+
+    private void end() throws IOException {
+        byte[] record = body.toByteArray();
+        crc.reset();
+        crc.update(record);
+        DataOutputStream framed = new DataOutputStream(pending);
+        framed.writeInt(record.length);
+        framed.write(record);
+        framed.writeInt((int) crc.getValue());
+    }
+
+    // Group commit: the first caller to find unflushed records writes and
+    // fsyncs everything buffered so far; concurrent callers wait for it.
+    public void sync() throws IOException {
+        long target;
+        byte[] batch;
+        synchronized (this) {
+            target = nextLsn - 1;
+            while (durableLsn < target) {
+                if (!flushing) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for log flush", e);
+                }
+            }
+            if (durableLsn >= target) {
+                return;
+            }
+            flushing = true;
+            target = nextLsn - 1;
+            batch = pending.toByteArray();
+            pending.reset();
+        }
+
+        boolean durable = false;
+        long start = -1;
+        try {
+            start = channel.position();
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            long started = Metrics.start();
+            channel.force(false);
+            Metrics.record(Metrics.JOURNAL_FSYNC, started);
+            Metrics.addBytes(Metrics.JOURNAL_BYTES, batch.length);
+            durable = true;
+        } finally {
+            synchronized (this) {
+                if (durable) {
+                    durableLsn = Math.max(durableLsn, target);
+                } else {
+                    requeue(batch, start);
+                }
+                flushing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // A failed flush puts its batch back ahead of the records appended meanwhile, to be
+    // rewritten from where it started by the next sync; nothing it covered counts as durable
+    private void requeue(byte[] batch, long start) {
+        byte[] appended = pending.toByteArray();
+        pending.reset();
+        pending.write(batch, 0, batch.length);
+        pending.write(appended, 0, appended.length);
+        try {
+            if (start >= 0) {
+                channel.position(start);
+            }
+        } catch (IOException e) {
+            // The channel is unusable; the next sync fails again and reports it
+        }
+    }
+
+    // Drops every record up to upToLsn once a checkpoint covering them has been written.
+    // Records appended after it, by operations that ran alongside the checkpoint, are
+    // copied into a fresh log that then atomically replaces this one, so a crash leaves
+    // either log intact. Returns false, keeping the log, only for a legacy-format log.
+    public synchronized boolean reset(long upToLsn) throws IOException {
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for log flush", e);
+            }
+        }
+        if (nextLsn - 1 == upToLsn) {
+            pending.reset();
+            channel.truncate(0);
+            writeFileHeader();
+            legacyFormat = false;
+            durableLsn = nextLsn - 1;
+            return true;
+        } else if (legacyFormat) {
+            return false;
+        }
+
+        // Records still in 'pending' are not in the file yet; they go to the new one on the next sync
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        channel.read(data, 0);
+        int keepFrom = FILE_HEADER_SIZE;
+        while (keepFrom + HEADER_SIZE + Long.BYTES <= data.limit()
+                && data.getLong(keepFrom + HEADER_SIZE) <= upToLsn) {
+            keepFrom += HEADER_SIZE + data.getInt(keepFrom) + TRAILER_SIZE;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel fresh = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            data.limit(data.position()).position(Math.min(keepFrom, data.position()));
+            for (ByteBuffer part : new ByteBuffer[] {header, data}) {
+                while (part.hasRemaining()) {
+                    fresh.write(part);
+                }
+            }
+            fresh.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return true;
+    }
+
+    private void writeFileHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        channel.write(header, 0);
+        channel.position(FILE_HEADER_SIZE);
+        channel.force(true);
+    }
+
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    // Legacy records encoded a local date-time as if it were UTC
+    private static long fromLegacyTimestamp(long encoded) {
+        Instant instant = LocalDateTime.ofEpochSecond(Math.floorDiv(encoded, 1_000_000_000L),
+                (int) Math.floorMod(encoded, 1_000_000_000L), ZoneOffset.UTC)
+                .atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+}
@@ -0,0 +1,30 @@
+// Outcome of an account operation. Operations report why they were rejected
+// instead of printing; BankApp renders them and batch runs tally them.
+public enum TransactionResult {
+    SUCCESS("success"),
+    INVALID_AMOUNT("invalid amount"),
+    INSUFFICIENT_FUNDS("insufficient funds"),
+    ACCOUNT_LOCKED("locked account"),
+    UNKNOWN_ACCOUNT("unknown account"),
+    SAME_ACCOUNT("same account"),
+    INCORRECT_PIN("incorrect PIN"),
+    LOCKED_OUT("too many failed PIN attempts"),
+    INVALID_ADMIN_PIN("invalid admin PIN"),
+    // Refused without checking the PIN: too many recent failures from the same source (or for the admin PIN)
+    THROTTLED("too many failed PIN attempts, try again later"),
+    // The PIN could not be checked because the verifier's queue is full
+    BUSY("PIN verification is busy, try again"),
+    // A retried request whose key matched an operation that already succeeded; nothing was applied again
+    DUPLICATE("already applied"),
+    KEY_REUSED("request key already used for a different operation");
+
+    private final String description;
+
+    TransactionResult(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}